@@ -0,0 +1,778 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import org.jahia.services.content.JCRNodeWrapper;
+import org.jahia.services.content.JCRPropertyWrapper;
+import org.jahia.services.content.JCRSessionFactory;
+import org.jahia.services.content.JCRSessionWrapper;
+import org.jahia.services.content.JCRWorkspaceWrapper;
+import org.jahia.services.content.nodetypes.ExtendedNodeDefinition;
+import org.jahia.services.content.nodetypes.ExtendedNodeType;
+import org.jahia.services.content.nodetypes.ExtendedPropertyDefinition;
+import org.jahia.services.content.nodetypes.NodeTypeRegistry;
+import org.jahia.services.usermanager.JahiaUser;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.jcr.*;
+import javax.jcr.nodetype.NoSuchNodeTypeException;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-memory stand-in for the parts of the repository used by the provider, so that benchmarks run without a Jahia
+ * server. Node types, nodes and properties are plain objects, exposed through dynamic proxies for the JCR and Jahia
+ * interfaces and through Mockito mocks for the Jahia classes. Only the calls made by the registry and the data
+ * fetchers are supported, other calls fail with an {@link UnsupportedOperationException}.
+ * <p>
+ * As in Jahia, the sessions of the current user are bound to the thread which opened them and replaced once logged out.
+ * Sessions aren't thread-safe: using one from another thread, or once it was logged out, fails with an
+ * {@link IllegalStateException} and is counted as a {@link #getSessionMisuses() misuse}.
+ */
+class InMemoryRepository {
+    static final String CONTAINER_TYPE = "bench:container";
+    static final String ITEM_TYPE = "bench:item";
+    static final int ITEM_PROPERTIES = 50;
+
+    private final Map<String, MemoryNodeType> nodeTypes = new LinkedHashMap<>();
+    private final Map<String, MemoryNode> nodesById = new HashMap<>();
+    private final Map<String, MemoryNode> nodesByPath = new HashMap<>();
+    private final JahiaUser user;
+    private final ThreadLocal<JCRSessionWrapper> sessions = new ThreadLocal<>();
+    private final AtomicInteger sessionMisuses = new AtomicInteger();
+    private final JCRSessionFactory sessionFactory;
+    private final NodeTypeRegistry nodeTypeRegistry;
+    private final MemoryNode root;
+    private final JCRWorkspaceWrapper workspace = stub(JCRWorkspaceWrapper.class, new Behavior() {
+        @Override
+        public Object invoke(Object self, String method, Class<?> returnType, Object[] args) {
+            if ("getQueryManager".equals(method)) {
+                return queryManager;
+            }
+            throw unsupported(method);
+        }
+    });
+    private final ValueFactory valueFactory = stub(ValueFactory.class, new Behavior() {
+        @Override
+        public Object invoke(Object self, String method, Class<?> returnType, Object[] args) {
+            if ("createValue".equals(method) && args.length == 1 && args[0] instanceof String) {
+                return value((String) args[0], PropertyType.STRING);
+            }
+            throw unsupported(method);
+        }
+    });
+
+    /**
+     * Only supports the queries reading nodes by identifier, which match all the nodes whose identifier is bound.
+     */
+    private final QueryManager queryManager = stub(QueryManager.class, new Behavior() {
+        @Override
+        public Object invoke(Object self, String method, Class<?> returnType, Object[] args) {
+            if (!"createQuery".equals(method) || !((String) args[0]).contains("[jcr:uuid] = $")) {
+                throw unsupported(method + " " + Arrays.toString(args));
+            }
+            final Map<String, String> bindings = new LinkedHashMap<>();
+            return stub(Query.class, new Behavior() {
+                @Override
+                public Object invoke(Object self, String method, Class<?> returnType, Object[] args)
+                        throws RepositoryException {
+                    switch (method) {
+                        case "bindValue":
+                            bindings.put((String) args[0], ((Value) args[1]).getString());
+                            return null;
+                        case "execute":
+                            final List<JCRNodeWrapper> nodes = new ArrayList<>(bindings.size());
+                            for (String id : bindings.values()) {
+                                final MemoryNode node = nodesById.get(id);
+                                if (node != null) {
+                                    nodes.add(node.getWrapper());
+                                }
+                            }
+                            return stub(QueryResult.class, new Behavior() {
+                                @Override
+                                public Object invoke(Object self, String method, Class<?> returnType, Object[] args) {
+                                    if ("getNodes".equals(method)) {
+                                        return stub(NodeIterator.class, new IteratorBehavior(nodes));
+                                    }
+                                    throw unsupported(method);
+                                }
+                            });
+                        default:
+                            throw unsupported(method);
+                    }
+                }
+            });
+        }
+    });
+
+    InMemoryRepository() {
+        user = stub(JahiaUser.class, new Behavior() {
+            @Override
+            public Object invoke(Object self, String method, Class<?> returnType, Object[] args) {
+                switch (method) {
+                    case "getName":
+                    case "getUsername":
+                        return "root";
+                    case "getUserKey":
+                    case "getLocalPath":
+                        return "/users/root";
+                    case "getRealm":
+                        return null;
+                    default:
+                        throw unsupported(method);
+                }
+            }
+        });
+        sessionFactory = stub(JCRSessionFactory.class, new Behavior() {
+            @Override
+            public Object invoke(Object self, String method, Class<?> returnType, Object[] args) {
+                switch (method) {
+                    case "getCurrentUser":
+                        return user;
+                    case "setCurrentUser":
+                        return null;
+                    case "getCurrentUserSession":
+                        JCRSessionWrapper session = sessions.get();
+                        if (session == null || !session.isLive()) {
+                            session = newSession();
+                            sessions.set(session);
+                        }
+                        return session;
+                    default:
+                        throw unsupported(method);
+                }
+            }
+        });
+        nodeTypeRegistry = stub(NodeTypeRegistry.class, new Behavior() {
+            @Override
+            public Object invoke(Object self, String method, Class<?> returnType, Object[] args)
+                    throws RepositoryException {
+                switch (method) {
+                    case "getAllNodeTypes":
+                        final List<ExtendedNodeType> types = new ArrayList<>(nodeTypes.size());
+                        for (MemoryNodeType type : nodeTypes.values()) {
+                            types.add(type.getStub());
+                        }
+                        return stub(returnType, new IteratorBehavior(types));
+                    case "getNodeType":
+                        return getNodeType((String) args[0]).getStub();
+                    default:
+                        throw unsupported(method);
+                }
+            }
+        });
+
+        root = new MemoryNode(null, "", addNodeType("rep:root"));
+    }
+
+    /**
+     * @return a repository with the specified number of node types, each with a few properties and children
+     * referencing other types, cycles included
+     */
+    static InMemoryRepository withSyntheticTypes(int count) {
+        final InMemoryRepository repository = new InMemoryRepository();
+        final List<MemoryNodeType> types = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            types.add(repository.addNodeType("bench:type" + i)
+                    .property("jcr:title", PropertyType.STRING, false)
+                    .property("j:count", PropertyType.LONG, false)
+                    .property("j:tags", PropertyType.STRING, true)
+                    .property("j:related", PropertyType.REFERENCE, false)
+                    .property("j:published", PropertyType.DATE, false));
+        }
+        for (int i = 0; i < count; i++) {
+            types.get(i)
+                    .child("first", types.get((i + 1) % count).getName())
+                    .child("second", types.get((i * 7) % count).getName())
+                    .child("*", types.get((i + 3) % count).getName());
+        }
+        return repository;
+    }
+
+    /**
+     * @return a repository holding a {@link #CONTAINER_TYPE} node at {@code /content} with the specified number of
+     * {@link #ITEM_TYPE} children, each referencing the next one
+     */
+    static InMemoryRepository withContent(int items) {
+        final InMemoryRepository repository = new InMemoryRepository();
+        final MemoryNodeType item = repository.addNodeType(ITEM_TYPE)
+                .property("jcr:title", PropertyType.STRING, false)
+                .property("j:count", PropertyType.LONG, false)
+                .property("j:tags", PropertyType.STRING, true)
+                .property("j:related", PropertyType.REFERENCE, false);
+        for (int i = 0; i < ITEM_PROPERTIES; i++) {
+            item.property("p" + i, PropertyType.STRING, false);
+        }
+        repository.addNodeType(CONTAINER_TYPE)
+                .property("jcr:title", PropertyType.STRING, false)
+                .child("*", ITEM_TYPE);
+
+        final MemoryNode container = repository.root.addChild("content", CONTAINER_TYPE);
+        container.setProperty("jcr:title", PropertyType.STRING, "Content");
+        final List<MemoryNode> children = new ArrayList<>(items);
+        for (int i = 0; i < items; i++) {
+            final MemoryNode child = container.addChild("item" + i, ITEM_TYPE);
+            child.setProperty("jcr:title", PropertyType.STRING, "Item " + i);
+            child.setProperty("j:count", PropertyType.LONG, String.valueOf(i));
+            child.setProperty("j:tags", PropertyType.STRING, "tag" + (i % 10), "tag" + (i % 7), "tag" + (i % 3));
+            for (int p = 0; p < ITEM_PROPERTIES; p++) {
+                child.setProperty("p" + p, PropertyType.STRING, "value " + p + " of item " + i);
+            }
+            children.add(child);
+        }
+        for (int i = 0; i < items; i++) {
+            children.get(i).setProperty("j:related", PropertyType.REFERENCE, children.get((i + 1) % items).getId());
+        }
+        return repository;
+    }
+
+    JahiaUser getUser() {
+        return user;
+    }
+
+    /**
+     * @return the number of times a session was used from another thread than the one which opened it, or after it
+     * was logged out
+     */
+    int getSessionMisuses() {
+        return sessionMisuses.get();
+    }
+
+    private JCRSessionWrapper newSession() {
+        final Thread owner = Thread.currentThread();
+        return stub(JCRSessionWrapper.class, new Behavior() {
+            private volatile boolean live = true;
+
+            @Override
+            public Object invoke(Object self, String method, Class<?> returnType, Object[] args)
+                    throws RepositoryException {
+                if ("isLive".equals(method)) {
+                    return live;
+                }
+                if (!live || Thread.currentThread() != owner) {
+                    sessionMisuses.incrementAndGet();
+                    throw new IllegalStateException(method + " called on a session opened by " + owner.getName()
+                            + (live ? " from " + Thread.currentThread().getName() : " after it was logged out"));
+                }
+                switch (method) {
+                    case "getNode":
+                        return getNodeByPath((String) args[0]).getWrapper();
+                    case "getNodeByIdentifier":
+                        final MemoryNode node = nodesById.get(args[0]);
+                        if (node == null) {
+                            throw new ItemNotFoundException((String) args[0]);
+                        }
+                        return node.getWrapper();
+                    case "hasPermission":
+                        return true;
+                    case "logout":
+                        live = false;
+                        return null;
+                    case "getLocale":
+                        return Locale.ENGLISH;
+                    case "getUser":
+                        return user;
+                    case "getWorkspace":
+                        return workspace;
+                    case "getValueFactory":
+                        return valueFactory;
+                    default:
+                        throw unsupported(method);
+                }
+            }
+        });
+    }
+
+    JCRSessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    NodeTypeRegistry getNodeTypeRegistry() {
+        return nodeTypeRegistry;
+    }
+
+    /**
+     * @return a started registry generating its schema from the node types of this repository, on first use rather than
+     * in the background, so that benchmarks measuring the generation don't race with it
+     */
+    GraphQLNodeRegistry newRegistry(int schemaParallelism) {
+        return newRegistry(schemaParallelism, true);
+    }
+
+    GraphQLNodeRegistry newRegistry(int schemaParallelism, boolean prefetchProperties) {
+        final GraphQLNodeRegistry registry = new GraphQLNodeRegistry();
+        registry.setRepository(sessionFactory);
+        registry.setNodeTypeRegistry(nodeTypeRegistry);
+        registry.setSchemaParallelism(schemaParallelism);
+        registry.setPrefetchProperties(prefetchProperties);
+        registry.start(false);
+        return registry;
+    }
+
+    JCRNodeWrapper getNode(String path) throws RepositoryException {
+        return getNodeByPath(path).getWrapper();
+    }
+
+    MemoryNodeType addNodeType(String name) {
+        final MemoryNodeType type = new MemoryNodeType(name);
+        nodeTypes.put(name, type);
+        return type;
+    }
+
+    private MemoryNodeType getNodeType(String name) throws NoSuchNodeTypeException {
+        final MemoryNodeType type = nodeTypes.get(name);
+        if (type == null) {
+            throw new NoSuchNodeTypeException(name);
+        }
+        return type;
+    }
+
+    private MemoryNode getNodeByPath(String path) throws PathNotFoundException {
+        final MemoryNode node = "/".equals(path) ? root : nodesByPath.get(path);
+        if (node == null) {
+            throw new PathNotFoundException(path);
+        }
+        return node;
+    }
+
+    private static UnsupportedOperationException unsupported(String method) {
+        return new UnsupportedOperationException(method + " isn't supported by the in-memory repository");
+    }
+
+    /**
+     * Implements the methods of a stub.
+     */
+    interface Behavior {
+        Object invoke(Object self, String method, Class<?> returnType, Object[] args) throws Exception;
+    }
+
+    /**
+     * @return an instance of the specified type delegating its methods to the specified behavior: a dynamic proxy for
+     * interfaces, a Mockito mock for classes
+     */
+    static <T> T stub(final Class<T> type, final Behavior behavior) {
+        if (type.isInterface()) {
+            return type.cast(Proxy.newProxyInstance(InMemoryRepository.class.getClassLoader(), new Class<?>[]{type},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            return dispatch(type, behavior, proxy, method, args != null ? args : new Object[0]);
+                        }
+                    }));
+        }
+        return Mockito.mock(type, new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                return dispatch(type, behavior, invocation.getMock(), invocation.getMethod(),
+                        invocation.getArguments());
+            }
+        });
+    }
+
+    private static Object dispatch(Class<?> type, Behavior behavior, Object self, Method method, Object[] args)
+            throws Exception {
+        switch (method.getName()) {
+            case "equals":
+                return args.length == 1 && self == args[0];
+            case "hashCode":
+                return System.identityHashCode(self);
+            case "toString":
+                return type.getSimpleName() + " stub";
+            default:
+                return behavior.invoke(self, method.getName(), method.getReturnType(), args);
+        }
+    }
+
+    /**
+     * Behavior of the JCR range iterators and of Jahia's iterators, which are also iterables.
+     */
+    private static class IteratorBehavior implements Behavior {
+        private final List<?> items;
+        private int position;
+
+        private IteratorBehavior(List<?> items) {
+            this.items = items;
+        }
+
+        @Override
+        public Object invoke(Object self, String method, Class<?> returnType, Object[] args) {
+            switch (method) {
+                case "hasNext":
+                    return position < items.size();
+                case "next":
+                case "nextNode":
+                case "nextProperty":
+                case "nextNodeType":
+                    if (position >= items.size()) {
+                        throw new NoSuchElementException();
+                    }
+                    return items.get(position++);
+                case "skip":
+                    position = (int) Math.min(items.size(), position + (Long) args[0]);
+                    return null;
+                case "getPosition":
+                    return (long) position;
+                case "getSize":
+                    return (long) items.size();
+                case "iterator":
+                    return self;
+                default:
+                    throw unsupported(method);
+            }
+        }
+    }
+
+    class MemoryNodeType implements Behavior {
+        private final String name;
+        private final List<ExtendedNodeDefinition> children = new ArrayList<>();
+        private final List<ExtendedPropertyDefinition> properties = new ArrayList<>();
+        private final ExtendedNodeType stub;
+
+        private MemoryNodeType(String name) {
+            this.name = name;
+            stub = stub(ExtendedNodeType.class, this);
+        }
+
+        String getName() {
+            return name;
+        }
+
+        ExtendedNodeType getStub() {
+            return stub;
+        }
+
+        MemoryNodeType child(final String childName, final String typeName) {
+            children.add(stub(ExtendedNodeDefinition.class, new Behavior() {
+                @Override
+                public Object invoke(Object self, String method, Class<?> returnType, Object[] args) {
+                    switch (method) {
+                        case "getName":
+                            return childName;
+                        case "getDefaultPrimaryTypeName":
+                            return typeName;
+                        case "getRequiredPrimaryTypeNames":
+                            return new String[]{typeName};
+                        case "getDeclaringNodeType":
+                            return stub;
+                        default:
+                            throw unsupported(method);
+                    }
+                }
+            }));
+            return this;
+        }
+
+        MemoryNodeType property(final String propertyName, final int type, final boolean multiple) {
+            properties.add(stub(ExtendedPropertyDefinition.class, new Behavior() {
+                @Override
+                public Object invoke(Object self, String method, Class<?> returnType, Object[] args) {
+                    switch (method) {
+                        case "getName":
+                            return propertyName;
+                        case "getRequiredType":
+                            return type;
+                        case "isMultiple":
+                            return multiple;
+                        case "getDeclaringNodeType":
+                            return stub;
+                        default:
+                            throw unsupported(method);
+                    }
+                }
+            }));
+            return this;
+        }
+
+        private ExtendedPropertyDefinition getPropertyDefinition(String propertyName) {
+            for (ExtendedPropertyDefinition property : properties) {
+                if (property.getName().equals(propertyName)) {
+                    return property;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Object invoke(Object self, String method, Class<?> returnType, Object[] args) {
+            switch (method) {
+                case "getName":
+                    return name;
+                case "getDescription":
+                    return null;
+                case "getSystemId":
+                    return "benchmarks";
+                case "isNodeType":
+                    return name.equals(args[0]) || "nt:base".equals(args[0]);
+                case "isMixin":
+                case "isAbstract":
+                    return false;
+                case "getChildNodeDefinitions":
+                    return children.toArray(new ExtendedNodeDefinition[children.size()]);
+                case "getPropertyDefinitions":
+                    return properties.toArray(new ExtendedPropertyDefinition[properties.size()]);
+                case "getSupertypes":
+                    return new ExtendedNodeType[0];
+                case "getDeclaredSupertypeNames":
+                    return new String[0];
+                default:
+                    throw unsupported(method);
+            }
+        }
+    }
+
+    class MemoryNode implements Behavior {
+        private final MemoryNode parent;
+        private final String name;
+        private final String path;
+        private final String id;
+        private final MemoryNodeType type;
+        private final Map<String, MemoryNode> children = new LinkedHashMap<>();
+        private final Map<String, MemoryProperty> properties = new LinkedHashMap<>();
+        private final JCRNodeWrapper wrapper;
+
+        private MemoryNode(MemoryNode parent, String name, MemoryNodeType type) {
+            this.parent = parent;
+            this.name = name;
+            this.path = parent == null ? "/" : ("/".equals(parent.path) ? "" : parent.path) + "/" + name;
+            this.id = UUID.nameUUIDFromBytes(path.getBytes(StandardCharsets.UTF_8)).toString();
+            this.type = type;
+            wrapper = stub(JCRNodeWrapper.class, this);
+            nodesById.put(id, this);
+            nodesByPath.put(path, this);
+        }
+
+        String getId() {
+            return id;
+        }
+
+        JCRNodeWrapper getWrapper() {
+            return wrapper;
+        }
+
+        MemoryNode addChild(String childName, String typeName) {
+            final MemoryNode child = new MemoryNode(this, childName, nodeTypes.get(typeName));
+            children.put(childName, child);
+            return child;
+        }
+
+        void setProperty(String propertyName, int propertyType, String... values) {
+            final ExtendedPropertyDefinition definition = type.getPropertyDefinition(propertyName);
+            final boolean multiple = definition != null ? definition.isMultiple() : values.length > 1;
+            properties.put(propertyName, new MemoryProperty(this, propertyName, propertyType, multiple, values));
+        }
+
+        @Override
+        public Object invoke(Object self, String method, Class<?> returnType, Object[] args) throws Exception {
+            switch (method) {
+                case "getIdentifier":
+                    return id;
+                case "getName":
+                    return name;
+                case "getPath":
+                    return path;
+                case "getDepth":
+                    return parent == null ? 0 : parent.wrapper.getDepth() + 1;
+                case "getParent":
+                    if (parent == null) {
+                        throw new ItemNotFoundException("Root node has no parent");
+                    }
+                    return parent.wrapper;
+                case "getPrimaryNodeType":
+                    return type.getStub();
+                case "getPrimaryNodeTypeName":
+                    return type.getName();
+                case "isNodeType":
+                    return type.getStub().isNodeType((String) args[0]);
+                case "hasNode":
+                    return children.containsKey(args[0]);
+                case "hasNodes":
+                    return !children.isEmpty();
+                case "getNode":
+                    final MemoryNode child = children.get(args[0]);
+                    if (child == null) {
+                        throw new PathNotFoundException(path + "/" + args[0]);
+                    }
+                    return child.wrapper;
+                case "getNodes":
+                    final List<JCRNodeWrapper> nodes = new ArrayList<>(children.size());
+                    for (MemoryNode node : children.values()) {
+                        nodes.add(node.wrapper);
+                    }
+                    return stub(returnType, new IteratorBehavior(nodes));
+                case "hasProperty":
+                    return properties.containsKey(args[0]);
+                case "getProperty":
+                    final MemoryProperty property = properties.get(args[0]);
+                    if (property == null) {
+                        throw new PathNotFoundException(path + "/" + args[0]);
+                    }
+                    return property.getWrapper();
+                case "getProperties":
+                    final List<JCRPropertyWrapper> selected = new ArrayList<>();
+                    final Collection<String> names = args.length == 1 ? Arrays.asList((String[]) args[0])
+                            : properties.keySet();
+                    for (String selectedName : names) {
+                        if (properties.containsKey(selectedName)) {
+                            selected.add(properties.get(selectedName).getWrapper());
+                        }
+                    }
+                    return stub(returnType, new IteratorBehavior(selected));
+                case "hasI18N":
+                    return false;
+                case "getI18N":
+                    throw new ItemNotFoundException("No translation for " + path);
+                case "getSession":
+                    return sessionFactory.getCurrentUserSession(null, null);
+                case "getUrl":
+                    return null;
+                case "hasPermission":
+                    return true;
+                default:
+                    throw unsupported(method);
+            }
+        }
+    }
+
+    class MemoryProperty implements Behavior {
+        private final MemoryNode node;
+        private final String name;
+        private final int type;
+        private final boolean multiple;
+        private final String[] values;
+        private final JCRPropertyWrapper wrapper;
+
+        private MemoryProperty(MemoryNode node, String name, int type, boolean multiple, String[] values) {
+            this.node = node;
+            this.name = name;
+            this.type = type;
+            this.multiple = multiple;
+            this.values = values;
+            wrapper = stub(JCRPropertyWrapper.class, this);
+        }
+
+        JCRPropertyWrapper getWrapper() {
+            return wrapper;
+        }
+
+        @Override
+        public Object invoke(Object self, String method, Class<?> returnType, Object[] args) throws Exception {
+            switch (method) {
+                case "getName":
+                    return name;
+                case "getPath":
+                    return node.path + "/" + name;
+                case "getParent":
+                    return node.wrapper;
+                case "getType":
+                    return type;
+                case "isMultiple":
+                    return multiple;
+                case "getValues":
+                    final Value[] result = new Value[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        result[i] = value(values[i], type);
+                    }
+                    return result;
+                case "getValue":
+                    return value(single(), type);
+                case "getLengths":
+                    final long[] lengths = new long[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        lengths[i] = values[i].length();
+                    }
+                    return lengths;
+                case "getLength":
+                    return (long) single().length();
+                case "getNode":
+                    final MemoryNode target = nodesById.get(single());
+                    if (target == null) {
+                        throw new ItemNotFoundException(single());
+                    }
+                    return target.wrapper;
+                default:
+                    return convert(method, single());
+            }
+        }
+
+        private String single() throws ValueFormatException {
+            if (multiple) {
+                throw new ValueFormatException(name + " is multi-valued");
+            }
+            return values[0];
+        }
+    }
+
+    private static Value value(final String value, final int type) {
+        return stub(Value.class, new Behavior() {
+            @Override
+            public Object invoke(Object self, String method, Class<?> returnType, Object[] args) {
+                return "getType".equals(method) ? type : convert(method, value);
+            }
+        });
+    }
+
+    private static Object convert(String method, String value) {
+        switch (method) {
+            case "getString":
+                return value;
+            case "getLong":
+                return Long.parseLong(value);
+            case "getDouble":
+                return Double.parseDouble(value);
+            case "getBoolean":
+                return Boolean.parseBoolean(value);
+            default:
+                throw unsupported(method);
+        }
+    }
+}
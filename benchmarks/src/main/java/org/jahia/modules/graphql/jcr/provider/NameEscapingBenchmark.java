@@ -0,0 +1,87 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion between JCR names and GraphQL names, done for every type and field of the schema.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class NameEscapingBenchmark {
+    private static final String[] NAMES = {"jnt:page", "jcr:title", "j:defaultCategory", "jmix:nodeReference",
+            "jnt:contentList", "j:view", "jcr:created", "nt:base", "jnt:bigText.text", "htmlHead"};
+
+    private String[] escaped;
+
+    @Setup
+    public void escapeNames() {
+        escaped = new String[NAMES.length];
+        for (int i = 0; i < NAMES.length; i++) {
+            escaped[i] = GraphQLNodeRegistry.escape(NAMES[i]);
+        }
+    }
+
+    @Benchmark
+    public void escape(Blackhole blackhole) {
+        for (String name : NAMES) {
+            blackhole.consume(GraphQLNodeRegistry.escape(name));
+        }
+    }
+
+    @Benchmark
+    public void unescape(Blackhole blackhole) {
+        for (String name : escaped) {
+            blackhole.consume(GraphQLNodeRegistry.unescape(name));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import org.jahia.api.Constants;
+import org.jahia.services.content.JCRNodeWrapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the materialization of the nodes of a 10k children listing whose query only selects their identifier: the
+ * eager variant also reads their name and path, as nodes used to do when created, while the lazy one only reads what
+ * is selected. Run with {@code -prof gc} to compare allocations. Items of the in-memory repository are much cheaper
+ * to read than JCR ones, so the difference is a lower bound of the one seen on a server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class NodeMaterializationBenchmark {
+    private static final int CHILDREN = 10000;
+
+    private List<JCRNodeWrapper> children;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void readChildren() throws Exception {
+        final InMemoryRepository repository = InMemoryRepository.withContent(CHILDREN);
+        children = new ArrayList<>(CHILDREN);
+        final Iterator<JCRNodeWrapper> iterator = (Iterator<JCRNodeWrapper>) repository.getNode("/content").getNodes();
+        while (iterator.hasNext()) {
+            children.add(iterator.next());
+        }
+    }
+
+    @Benchmark
+    public void eager(Blackhole blackhole) {
+        for (JCRNodeWrapper child : children) {
+            final GQLNode node = create(child);
+            blackhole.consume(node.getName());
+            blackhole.consume(node.getPath());
+            blackhole.consume(node.getId());
+        }
+    }
+
+    @Benchmark
+    public void lazy(Blackhole blackhole) {
+        for (JCRNodeWrapper child : children) {
+            blackhole.consume(create(child).getId());
+        }
+    }
+
+    private GQLNode create(JCRNodeWrapper child) {
+        return new GQLNode(child, Constants.LIVE_WORKSPACE, Locale.ENGLISH, Collections.<Locale>emptyList(), null);
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import graphql.ExecutionResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the execution of typical queries against in-memory content: a single node, a page of children with a
+ * varying number of selected properties, and the nodes referenced by a page of children. Each query is measured with
+ * the selected properties prefetched by the properties field and, as a baseline, read by each property field.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+public class QueryExecutionBenchmark {
+    private static final int ITEMS = 200;
+
+    @Param({"1", "10", "50"})
+    private int selectedProperties;
+
+    @Param({"100"})
+    private int pageSize;
+
+    @Param({"false", "true"})
+    private boolean prefetch;
+
+    private GraphQLNodeRegistry registry;
+    private JCRQueryExecutor executor;
+    private String nodeQuery;
+    private String connectionQuery;
+    private String referencesQuery;
+
+    @Setup
+    public void createExecutor() {
+        final InMemoryRepository repository = InMemoryRepository.withContent(ITEMS);
+        registry = repository.newRegistry(1, prefetch);
+        executor = new JCRQueryExecutor();
+        executor.setRegistry(registry);
+
+        final StringBuilder properties = new StringBuilder();
+        for (int i = 0; i < selectedProperties; i++) {
+            properties.append(" p").append(i);
+        }
+        nodeQuery = "{ bench__item(path: \"/content/item0\") { name properties { jcr__title j__count } } }";
+        connectionQuery = "{ bench__container(path: \"/content\") { children { bench__itemConnection(first: "
+                + pageSize + ") { edges { node { name properties {" + properties + " } } } } } } }";
+        referencesQuery = "{ bench__container(path: \"/content\") { children { bench__itemConnection(first: "
+                + pageSize + ") { edges { node { name properties { j__relatedNode { ... on bench__item { name } } }"
+                + " } } } } } }";
+
+        for (String query : new String[]{nodeQuery, connectionQuery, referencesQuery}) {
+            final ExecutionResult result = executor.execute(query);
+            if (!result.getErrors().isEmpty()) {
+                throw new IllegalStateException("Query " + query + " failed: " + result.getErrors());
+            }
+        }
+    }
+
+    @TearDown
+    public void stopRegistry() {
+        registry.stop();
+    }
+
+    @Benchmark
+    public Object node() {
+        return executor.execute(nodeQuery).getData();
+    }
+
+    @Benchmark
+    public Object connection() {
+        return executor.execute(connectionQuery).getData();
+    }
+
+    @Benchmark
+    public Object references() {
+        return executor.execute(referencesQuery).getData();
+    }
+}
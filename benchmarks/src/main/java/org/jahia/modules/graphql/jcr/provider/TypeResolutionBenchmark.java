@@ -0,0 +1,121 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import graphql.schema.GraphQLSchema;
+import graphql.schema.GraphQLUnionType;
+import graphql.schema.TypeResolver;
+import org.jahia.api.Constants;
+import org.jahia.services.content.JCRNodeWrapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the resolution of the GraphQL types of the nodes of a 10k children listing, done for every node returned
+ * through the {@code node} union: nodes created within a request resolve to the type looked up at creation, others
+ * through their node type name.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class TypeResolutionBenchmark {
+    private static final int CHILDREN = 10000;
+
+    private GraphQLNodeRegistry registry;
+    private JCRRequestContext context;
+    private TypeResolver resolver;
+    private List<GQLNode> resolvedNodes;
+    private List<GQLNode> unresolvedNodes;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void createNodes() throws Exception {
+        final InMemoryRepository repository = InMemoryRepository.withContent(CHILDREN);
+        registry = repository.newRegistry(1);
+        final GraphQLSchema schema = GraphQLSchema.newSchema().query(registry.getQuery()).build();
+        resolver = ((GraphQLUnionType) schema.getType("node")).getTypeResolver();
+        context = new JCRRequestContext(registry);
+
+        resolvedNodes = new ArrayList<>(CHILDREN);
+        unresolvedNodes = new ArrayList<>(CHILDREN);
+        final Iterator<JCRNodeWrapper> children = (Iterator<JCRNodeWrapper>) repository.getNode("/content").getNodes();
+        while (children.hasNext()) {
+            final JCRNodeWrapper child = children.next();
+            resolvedNodes.add(new GQLNode(child, Constants.LIVE_WORKSPACE, Locale.ENGLISH,
+                    Collections.<Locale>emptyList(), context));
+            unresolvedNodes.add(new GQLNode(child, Constants.LIVE_WORKSPACE, Locale.ENGLISH,
+                    Collections.<Locale>emptyList(), null));
+        }
+    }
+
+    @TearDown
+    public void stopRegistry() {
+        context.close();
+        registry.stop();
+    }
+
+    @Benchmark
+    public void resolvedAtCreation(Blackhole blackhole) {
+        for (GQLNode node : resolvedNodes) {
+            blackhole.consume(resolver.getType(node));
+        }
+    }
+
+    @Benchmark
+    public void resolvedByName(Blackhole blackhole) {
+        for (GQLNode node : unresolvedNodes) {
+            blackhole.consume(resolver.getType(node));
+        }
+    }
+}
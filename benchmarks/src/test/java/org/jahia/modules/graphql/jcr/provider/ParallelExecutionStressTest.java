@@ -0,0 +1,139 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import graphql.ExecutionResult;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hammers one registry with queries executed from many threads, their root fields resolved concurrently, and checks
+ * their results are the ones of a serial execution and that no session is used by several threads.
+ */
+public class ParallelExecutionStressTest {
+    private static final int ITEMS = 100;
+    private static final int QUERIES = 20;
+    private static final int THREADS = 16;
+    private static final int EXECUTIONS = 200;
+
+    @Test
+    public void concurrentExecutionsReturnSerialResults() throws Exception {
+        final InMemoryRepository repository = InMemoryRepository.withContent(ITEMS);
+        final GraphQLNodeRegistry registry = repository.newRegistry(1);
+        final JCRQueryExecutor serial = new JCRQueryExecutor();
+        serial.setRegistry(registry);
+        final JCRQueryExecutor parallel = new JCRQueryExecutor();
+        parallel.setRegistry(registry);
+        parallel.setParallelism(4);
+        parallel.start();
+        final ExecutorService clients = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<String> queries = new ArrayList<>(QUERIES);
+            final List<Object> expected = new ArrayList<>(QUERIES);
+            for (int i = 0; i < QUERIES; i++) {
+                final String query = query(i);
+                final ExecutionResult result = serial.execute(query);
+                assertTrue(query + " failed: " + result.getErrors(), result.getErrors().isEmpty());
+                queries.add(query);
+                expected.add(result.getData());
+            }
+
+            final List<Future<?>> executions = new ArrayList<>(THREADS);
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                executions.add(clients.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = 0; i < EXECUTIONS; i++) {
+                            final int query = (thread + i) % QUERIES;
+                            final ExecutionResult result = parallel.execute(queries.get(query));
+                            assertTrue(queries.get(query) + " failed: " + result.getErrors(),
+                                    result.getErrors().isEmpty());
+                            assertEquals(queries.get(query), expected.get(query), result.getData());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> execution : executions) {
+                try {
+                    execution.get(2, TimeUnit.MINUTES);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+            assertEquals("Sessions used by several threads", 0, repository.getSessionMisuses());
+        } finally {
+            clients.shutdownNow();
+            parallel.stop();
+            registry.stop();
+        }
+    }
+
+    /**
+     * @return a query with several root fields, on nodes depending on the specified index
+     */
+    private static String query(int index) {
+        final StringBuilder query = new StringBuilder("{");
+        for (int i = 0; i < 4; i++) {
+            final int item = (index * 3 + i) % ITEMS;
+            query.append(" item").append(i).append(": bench__item(path: \"/content/item").append(item)
+                    .append("\") { name path properties { jcr__title j__count j__tags p").append(index % 10)
+                    .append(" j__relatedNode { ... on bench__item { name } } } }");
+        }
+        query.append(" container: bench__container(path: \"/content\") { name children {")
+                .append(" bench__itemConnection(first: 10) { edges { cursor node { name properties { jcr__title } } } }")
+                .append(" } }");
+        return query.append(" }").toString();
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import graphql.schema.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the schema generated in parallel from a large synthetic set of node types, cycles included, is the one
+ * generated serially.
+ */
+public class ParallelSchemaGenerationTest {
+    private static final int TYPES = 2000;
+
+    @Test
+    public void parallelGenerationProducesSerialSchema() {
+        final InMemoryRepository repository = InMemoryRepository.withSyntheticTypes(TYPES);
+        assertEquals(describe(repository, 1), describe(repository, 4));
+    }
+
+    /**
+     * @return a description of all the types of the schema generated with the specified parallelism, with their fields
+     * and arguments in the order they were generated in
+     */
+    private static String describe(InMemoryRepository repository, int parallelism) {
+        final GraphQLNodeRegistry registry = repository.newRegistry(parallelism);
+        try {
+            final GraphQLSchema schema = GraphQLSchema.newSchema().query(registry.getQuery()).build();
+            final List<GraphQLType> types = new ArrayList<>(schema.getAllTypesAsList());
+            Collections.sort(types, new Comparator<GraphQLType>() {
+                @Override
+                public int compare(GraphQLType first, GraphQLType second) {
+                    return first.getName().compareTo(second.getName());
+                }
+            });
+
+            final StringBuilder description = new StringBuilder();
+            for (GraphQLType type : types) {
+                description.append(type.getClass().getSimpleName()).append(' ').append(type.getName());
+                if (type instanceof GraphQLObjectType) {
+                    for (GraphQLInterfaceType implemented : ((GraphQLObjectType) type).getInterfaces()) {
+                        description.append(" implements ").append(implemented.getName());
+                    }
+                }
+                if (type instanceof GraphQLUnionType) {
+                    for (GraphQLObjectType possible : ((GraphQLUnionType) type).getTypes()) {
+                        description.append(" | ").append(possible.getName());
+                    }
+                }
+                description.append('\n');
+                if (type instanceof GraphQLFieldsContainer) {
+                    for (GraphQLFieldDefinition field : ((GraphQLFieldsContainer) type).getFieldDefinitions()) {
+                        description.append("  ").append(field.getName()).append(": ")
+                                .append(describe(field.getType())).append('\n');
+                        for (GraphQLArgument argument : field.getArguments()) {
+                            description.append("    ").append(argument.getName()).append(": ")
+                                    .append(describe(argument.getType())).append(" = ")
+                                    .append(argument.getDefaultValue()).append('\n');
+                        }
+                    }
+                }
+            }
+            return description.toString();
+        } finally {
+            registry.stop();
+        }
+    }
+
+    private static String describe(GraphQLType type) {
+        if (type instanceof GraphQLList) {
+            return "[" + describe(((GraphQLList) type).getWrappedType()) + "]";
+        } else if (type instanceof GraphQLNonNull) {
+            return describe(((GraphQLNonNull) type).getWrappedType()) + "!";
+        } else if (type instanceof GraphQLTypeReference) {
+            // would fail the schema build if left unresolved, but make it explicit
+            return "unresolved " + type.getName();
+        }
+        return type.getName();
+    }
+}
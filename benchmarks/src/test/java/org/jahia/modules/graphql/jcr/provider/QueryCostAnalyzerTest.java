@@ -0,0 +1,108 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import org.jahia.services.usermanager.JahiaUser;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks how the limits of a user are resolved from the default limits and the ones of their groups.
+ */
+public class QueryCostAnalyzerTest {
+    @Test
+    public void restrictedGroupAppliesWithUnlimitedDefault() {
+        final QueryCostAnalyzer analyzer = analyzer(Collections.singletonMap("anonymous", 100L), "anonymous");
+        analyzer.setGroupMaxDepths(Collections.singletonMap("anonymous", 5));
+        assertEquals(100, analyzer.getMaxCost(null));
+        assertEquals(5, analyzer.getMaxDepth(null));
+    }
+
+    @Test
+    public void defaultAppliesOutsideOfGroups() {
+        final QueryCostAnalyzer analyzer = analyzer(Collections.singletonMap("anonymous", 100L));
+        assertEquals(0, analyzer.getMaxCost(null));
+        analyzer.setDefaultMaxCost(1000);
+        assertEquals(1000, analyzer.getMaxCost(null));
+    }
+
+    @Test
+    public void groupLimitReplacesDefault() {
+        final Map<String, Long> limits = new HashMap<>();
+        limits.put("privileged", 100000L);
+        limits.put("restricted", 10L);
+        QueryCostAnalyzer analyzer = analyzer(limits, "restricted");
+        analyzer.setDefaultMaxCost(1000);
+        assertEquals(10, analyzer.getMaxCost(null));
+
+        analyzer = analyzer(limits, "privileged");
+        analyzer.setDefaultMaxCost(1000);
+        assertEquals(100000, analyzer.getMaxCost(null));
+    }
+
+    @Test
+    public void mostPermissiveGroupApplies() {
+        final Map<String, Long> limits = new LinkedHashMap<>();
+        limits.put("restricted", 10L);
+        limits.put("editors", 500L);
+        limits.put("administrators", 0L);
+        assertEquals(500, analyzer(limits, "restricted", "editors").getMaxCost(null));
+        assertEquals(0, analyzer(limits, "restricted", "administrators").getMaxCost(null));
+    }
+
+    private static QueryCostAnalyzer analyzer(Map<String, Long> groupMaxCosts, String... groups) {
+        final Set<String> memberships = new HashSet<>(Arrays.asList(groups));
+        final QueryCostAnalyzer analyzer = new QueryCostAnalyzer() {
+            @Override
+            boolean isMember(JahiaUser user, String group) {
+                return memberships.contains(group);
+            }
+        };
+        analyzer.setGroupMaxCosts(groupMaxCosts);
+        return analyzer;
+    }
+}
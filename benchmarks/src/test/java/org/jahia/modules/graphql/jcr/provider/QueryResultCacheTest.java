@@ -0,0 +1,99 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Checks that query result cache keys ignore formatting differences, but not differences in string literals or
+ * variables.
+ */
+public class QueryResultCacheTest {
+    @Test
+    public void formattingDoesNotChangeKey() {
+        assertEquals(key("{ node(path: \"/a\") { name, id } }"),
+                key("{\n  node(path: \"/a\") {\n    name # the name\n    id\n  }\n}"));
+    }
+
+    @Test
+    public void separatorsInStringLiteralsChangeKey() {
+        assertNotEquals(key("{ node(path: \"/a,b\") { name } }"), key("{ node(path: \"/a b\") { name } }"));
+        assertNotEquals(key("{ node(path: \"/a  b\") { name } }"), key("{ node(path: \"/a b\") { name } }"));
+        assertNotEquals(key("{ node(path: \"/a\\\" b\") { name } }"), key("{ node(path: \"/a\\\"  b\") { name } }"));
+    }
+
+    @Test
+    public void variablesAreEncodedUnambiguously() {
+        final Map<String, Object> single = Collections.<String, Object>singletonMap("a", "1, b=2");
+        final Map<String, Object> two = new HashMap<>();
+        two.put("a", "1");
+        two.put("b", "2");
+        assertNotEquals(QueryResultCache.key("{ a }", null, single, null),
+                QueryResultCache.key("{ a }", null, two, null));
+    }
+
+    @Test
+    public void variableOrderDoesNotChangeKey() {
+        final Map<String, Object> first = new HashMap<>();
+        first.put("a", "1");
+        first.put("b", Collections.singletonMap("c", 2));
+        final Map<String, Object> second = new LinkedHashMap<>();
+        second.put("b", Collections.singletonMap("c", 2));
+        second.put("a", "1");
+        assertEquals(QueryResultCache.key("{ a }", null, first, null),
+                QueryResultCache.key("{ a }", null, second, null));
+    }
+
+    private static String key(String query) {
+        return QueryResultCache.key(query, null, null, null);
+    }
+}
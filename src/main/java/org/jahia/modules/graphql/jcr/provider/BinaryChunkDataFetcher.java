@@ -0,0 +1,136 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import graphql.schema.DataFetchingEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Binary;
+import javax.jcr.RepositoryException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * Reads a range of a {@link GQLBinary} and returns it base64-encoded, only reading the requested bytes from the
+ * repository.
+ */
+class BinaryChunkDataFetcher extends JCRDataFetcher<String> {
+    private static Logger logger = LoggerFactory.getLogger(BinaryChunkDataFetcher.class);
+
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    static final int MAX_CHUNK_SIZE = 1024 * 1024;
+
+    BinaryChunkDataFetcher(GraphQLNodeRegistry registry) {
+        super(registry);
+    }
+
+    @Override
+    protected String perform(DataFetchingEnvironment environment, JCRRequestContext context, NodeLoader loader)
+            throws RepositoryException {
+        final GQLBinary source = (GQLBinary) environment.getSource();
+        final Number offsetArgument = environment.getArgument("offset");
+        final Integer lengthArgument = environment.getArgument("length");
+        final long offset = offsetArgument != null ? offsetArgument.longValue() : 0;
+        final int length = lengthArgument != null ? lengthArgument : DEFAULT_CHUNK_SIZE;
+        if (offset < 0 || length < 0 || length > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunks must start at a positive offset and be at most "
+                    + MAX_CHUNK_SIZE + " bytes long");
+        }
+
+        final Binary binary = source.getBinary();
+        try {
+            final byte[] buffer = new byte[(int) Math.max(0, Math.min(length, binary.getSize() - offset))];
+            int read = 0;
+            // Binary.read only fills arrays from their start, reads after a short one go through a single scratch array
+            byte[] scratch = null;
+            while (read < buffer.length) {
+                context.checkDeadline();
+                final int count;
+                if (read == 0) {
+                    count = binary.read(buffer, offset);
+                } else {
+                    if (scratch == null) {
+                        scratch = new byte[buffer.length - read];
+                    }
+                    count = binary.read(scratch, offset + read);
+                    if (count > 0) {
+                        System.arraycopy(scratch, 0, buffer, read, Math.min(count, buffer.length - read));
+                    }
+                }
+                if (count == -1) {
+                    break;
+                }
+                read = Math.min(read + count, buffer.length);
+            }
+            return Base64.getEncoder().encodeToString(read == buffer.length ? buffer : Arrays.copyOf(buffer, read));
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            return null;
+        } finally {
+            binary.dispose();
+        }
+    }
+
+    @Override
+    protected JCRRequestContext getRequestContext(DataFetchingEnvironment environment) {
+        return getParent(environment).getContext();
+    }
+
+    @Override
+    protected String getWs(DataFetchingEnvironment environment) {
+        return getParent(environment).getWs();
+    }
+
+    @Override
+    protected Locale getLang(DataFetchingEnvironment environment) {
+        return getParent(environment).getLang();
+    }
+
+    private static GQLNode getParent(DataFetchingEnvironment environment) {
+        return ((GQLBinary) environment.getSource()).getParent();
+    }
+}
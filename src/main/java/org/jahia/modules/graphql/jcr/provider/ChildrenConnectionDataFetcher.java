@@ -0,0 +1,206 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import graphql.language.Field;
+import graphql.language.FragmentSpread;
+import graphql.language.InlineFragment;
+import graphql.language.Selection;
+import graphql.language.SelectionSet;
+import graphql.schema.DataFetchingEnvironment;
+import org.jahia.services.content.JCRNodeWrapper;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Pages through the children of a node matching a given node type. Children are streamed from the JCR node iterator
+ * so that only the requested page is ever materialized, whatever the number of children.
+ * <p>
+ * Cursors encode the position of a child in its parent's iteration order along with its name, so that resuming from a
+ * cursor is a simple skip as long as the parent hasn't been modified in between, and falls back to looking the named
+ * child up otherwise, or to resuming from the same position if that child was removed since. Pages hold at most
+ * {@value #MAX_PAGE_SIZE} children.
+ */
+class ChildrenConnectionDataFetcher extends ItemsDataFetcher<GQLConnection> {
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+
+    private final String childType;
+
+    ChildrenConnectionDataFetcher(GraphQLNodeRegistry registry, String childType) {
+        super(registry);
+        this.childType = childType;
+    }
+
+    @Override
+    protected String getItemName(DataFetchingEnvironment environment) {
+        return childType;
+    }
+
+    @Override
+    protected GQLConnection perform(DataFetchingEnvironment environment, JCRRequestContext context, NodeLoader loader,
+                                    JCRNodeWrapper node, String childType) throws RepositoryException {
+        final Integer firstArg = environment.getArgument("first");
+        if (firstArg != null && firstArg < 0) {
+            throw new IllegalArgumentException("first must not be negative, was " + firstArg);
+        }
+        final int first = firstArg == null ? DEFAULT_PAGE_SIZE : Math.min(firstArg, MAX_PAGE_SIZE);
+        final String after = environment.getArgument("after");
+
+        final NodeIterator children = after == null ? node.getNodes() : positionAfter(node, after);
+
+        final List<GQLEdge> edges = new ArrayList<>(Math.min(first, DEFAULT_PAGE_SIZE));
+        final List<GQLNode> nodes = new ArrayList<>(Math.min(first, DEFAULT_PAGE_SIZE));
+        JCRNodeWrapper next = null;
+        while (children.hasNext()) {
+            context.checkDeadline();
+            final long position = children.getPosition();
+            final JCRNodeWrapper child = (JCRNodeWrapper) children.nextNode();
+            if (!child.isNodeType(childType)) {
+                continue;
+            }
+
+            if (edges.size() == first) {
+                next = child;
+                break;
+            }
+            final GQLNode gqlNode = new GQLNode(child, loader.getWorkspace(), loader.getLocale(),
+                    getItemsParent(environment).getFallbackLangs(), context);
+            nodes.add(gqlNode);
+            edges.add(new GQLEdge(gqlNode, encodeCursor(position, child.getName())));
+        }
+        NodeBatch.link(nodes);
+
+        final GQLPageInfo pageInfo = new GQLPageInfo(next != null, after != null,
+                edges.isEmpty() ? null : edges.get(0).getCursor(),
+                edges.isEmpty() ? null : edges.get(edges.size() - 1).getCursor());
+
+        final Integer totalCount = isSelected(environment, "totalCount") ? count(node) : null;
+
+        return new GQLConnection(edges, pageInfo, totalCount);
+    }
+
+    private NodeIterator positionAfter(JCRNodeWrapper parent, String cursor) throws RepositoryException {
+        final String decoded = new String(Base64.getDecoder().decode(cursor), StandardCharsets.UTF_8);
+        final int separator = decoded.indexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        final long position = Long.parseLong(decoded.substring(0, separator));
+        final String name = decoded.substring(separator + 1);
+
+        final NodeIterator children = parent.getNodes();
+        try {
+            children.skip(position);
+            if (children.hasNext() && name.equals(children.nextNode().getName())) {
+                return children;
+            }
+        } catch (NoSuchElementException e) {
+            // children were removed since the cursor was issued
+        }
+
+        // the parent was modified since the cursor was issued, look the child up from the start
+        final NodeIterator restarted = parent.getNodes();
+        while (restarted.hasNext()) {
+            if (name.equals(restarted.nextNode().getName())) {
+                return restarted;
+            }
+        }
+
+        // the child was removed, the ones which followed it moved up by one: resume from its position
+        final NodeIterator resumed = parent.getNodes();
+        for (long i = 0; i < position && resumed.hasNext(); i++) {
+            resumed.nextNode();
+        }
+        return resumed;
+    }
+
+    private Integer count(JCRNodeWrapper node) throws RepositoryException {
+        final NodeIterator children = node.getNodes();
+        int count = 0;
+        while (children.hasNext()) {
+            if (children.nextNode().isNodeType(childType)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isSelected(DataFetchingEnvironment environment, String fieldName) {
+        for (Field field : environment.getFields()) {
+            if (isSelected(field.getSelectionSet(), fieldName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSelected(SelectionSet selectionSet, String fieldName) {
+        if (selectionSet == null) {
+            return false;
+        }
+        for (Selection selection : selectionSet.getSelections()) {
+            if (selection instanceof Field && fieldName.equals(((Field) selection).getName())) {
+                return true;
+            } else if (selection instanceof InlineFragment
+                    && isSelected(((InlineFragment) selection).getSelectionSet(), fieldName)) {
+                return true;
+            } else if (selection instanceof FragmentSpread) {
+                // fragment definitions aren't available to fetchers, assume the field might be selected
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String encodeCursor(long position, String name) {
+        return Base64.getEncoder().encodeToString((position + ":" + name).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -45,7 +45,6 @@ package org.jahia.modules.graphql.jcr.provider;
 
 import graphql.schema.DataFetchingEnvironment;
 import org.jahia.services.content.JCRNodeWrapper;
-import org.jahia.services.content.JCRSessionWrapper;
 
 import javax.jcr.RepositoryException;
 
@@ -59,7 +58,9 @@ public class ChildrenDataFetcher extends ItemsDataFetcher<GQLNode> {
     }
 
     @Override
-    protected GQLNode perform(DataFetchingEnvironment environment, JCRSessionWrapper session, JCRNodeWrapper node, String childName) throws RepositoryException {
-        return new GQLNode(node.getNode(childName), ws, lang);
+    protected GQLNode perform(DataFetchingEnvironment environment, JCRRequestContext context, NodeLoader loader,
+                              JCRNodeWrapper node, String childName) throws RepositoryException {
+        return new GQLNode(node.getNode(childName), loader.getWorkspace(), loader.getLocale(),
+                getItemsParent(environment).getFallbackLangs(), context);
     }
 }
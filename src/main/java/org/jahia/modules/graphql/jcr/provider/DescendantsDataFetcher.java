@@ -0,0 +1,141 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import graphql.schema.DataFetchingEnvironment;
+import org.jahia.services.content.JCRNodeWrapper;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Resolves the descendants of a node down to a given depth in a single breadth-first traversal, returning them as a
+ * flat list of {@link GQLDescendant}s, so that navigation menus or sitemaps don't need one nested {@code children}
+ * field, and one fetch, per level and per node.
+ * <p>
+ * When types are specified, only descendants of these types are returned, and only their own descendants are
+ * traversed, e.g. pages below pages, skipping the content of each page. Returned nodes are registered on the
+ * {@link NodeLoader} and batched together, so that fields resolved on them don't read them again.
+ */
+class DescendantsDataFetcher extends ItemsDataFetcher<List<GQLDescendant>> {
+    static final int DEFAULT_DEPTH = 1;
+    static final int DEFAULT_LIMIT = 1000;
+
+    DescendantsDataFetcher(GraphQLNodeRegistry registry) {
+        super(registry);
+    }
+
+    @Override
+    protected String getItemName(DataFetchingEnvironment environment) {
+        return null;
+    }
+
+    @Override
+    protected List<GQLDescendant> perform(DataFetchingEnvironment environment, JCRRequestContext context,
+                                          NodeLoader loader, JCRNodeWrapper node, String childName)
+            throws RepositoryException {
+        final Integer depthArg = environment.getArgument("depth");
+        final int depth = depthArg == null ? DEFAULT_DEPTH : depthArg;
+        if (depth < 1) {
+            throw new IllegalArgumentException("depth must be at least 1, was " + depth);
+        }
+        final Integer limitArg = environment.getArgument("limit");
+        final int limit = limitArg == null ? DEFAULT_LIMIT : limitArg;
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative, was " + limit);
+        }
+        final List<String> typesArg = environment.getArgument("types");
+        final List<String> types = typesArg == null ? Collections.<String>emptyList() : typesArg;
+
+        final List<GQLDescendant> result = new ArrayList<>();
+        final List<GQLNode> nodes = new ArrayList<>();
+        final GQLNode parent = getItemsParent(environment);
+        List<JCRNodeWrapper> level = Collections.singletonList(node);
+        for (int currentDepth = 1; currentDepth <= depth && !level.isEmpty(); currentDepth++) {
+            final List<JCRNodeWrapper> next = new ArrayList<>();
+            for (JCRNodeWrapper levelNode : level) {
+                final String parentId = levelNode.getIdentifier();
+                final NodeIterator children = levelNode.getNodes();
+                while (children.hasNext()) {
+                    context.checkDeadline();
+                    final JCRNodeWrapper child = (JCRNodeWrapper) children.nextNode();
+                    if (!isOfType(child, types)) {
+                        continue;
+                    }
+                    if (result.size() == limit) {
+                        NodeBatch.link(nodes);
+                        return result;
+                    }
+
+                    loader.prime(child);
+                    final GQLNode gqlNode = new GQLNode(child, loader.getWorkspace(), loader.getLocale(),
+                            parent.getFallbackLangs(), context);
+                    nodes.add(gqlNode);
+                    result.add(new GQLDescendant(gqlNode, parentId, currentDepth));
+                    if (currentDepth < depth) {
+                        next.add(child);
+                    }
+                }
+            }
+            level = next;
+        }
+        NodeBatch.link(nodes);
+        return result;
+    }
+
+    private static boolean isOfType(JCRNodeWrapper node, List<String> types) throws RepositoryException {
+        if (types.isEmpty()) {
+            return true;
+        }
+        for (String type : types) {
+            if (node.isNodeType(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records, per data fetcher class and per field, how many times fields were resolved, how long it took, and how many
+ * sessions were opened and nodes and properties read while doing so. Statistics are exposed through JMX, where
+ * recording can be switched on and off, along with the tracing of individual queries in their results, see
+ * {@link QueryTracing}.
+ * <p>
+ * Fetchers only check a volatile flag when both are disabled. When fields are resolved concurrently, the sessions,
+ * nodes and properties of a field might include the ones of its siblings.
+ */
+public class FetcherMetrics implements FetcherMetricsMBean {
+    private static Logger logger = LoggerFactory.getLogger(FetcherMetrics.class);
+
+    static final String OBJECT_NAME = "org.jahia.modules.graphql:type=FetcherMetrics";
+    // upper bounds of the latency histogram buckets, the last bucket holds longer latencies
+    private static final long[] BUCKETS_MICROS = {100, 1000, 10000, 100000, 1000000};
+
+    private volatile boolean enabled;
+    private volatile boolean tracing;
+    private final ConcurrentMap<String, Statistics> fetchers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Statistics> fields = new ConcurrentHashMap<>();
+    private ObjectName objectName;
+
+    public void start() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            logger.warn("Couldn't register GraphQL fetcher metrics in JMX", e);
+        }
+    }
+
+    public void stop() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                logger.debug("Couldn't unregister GraphQL fetcher metrics", e);
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public boolean isTracing() {
+        return tracing;
+    }
+
+    @Override
+    public void setTracing(boolean tracing) {
+        this.tracing = tracing;
+    }
+
+    void record(String fetcher, String field, long durationNanos, int sessions, int nodes, int properties) {
+        get(fetchers, fetcher).record(durationNanos, sessions, nodes, properties);
+        get(fields, field).record(durationNanos, sessions, nodes, properties);
+    }
+
+    private static Statistics get(ConcurrentMap<String, Statistics> statistics, String key) {
+        Statistics result = statistics.get(key);
+        if (result == null) {
+            final Statistics created = new Statistics();
+            result = statistics.putIfAbsent(key, created);
+            if (result == null) {
+                result = created;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String[] getFetcherStatistics() {
+        return format(fetchers);
+    }
+
+    @Override
+    public String[] getFieldStatistics() {
+        return format(fields);
+    }
+
+    @Override
+    public void reset() {
+        fetchers.clear();
+        fields.clear();
+    }
+
+    private static String[] format(Map<String, Statistics> statistics) {
+        final List<String> lines = new ArrayList<>(statistics.size());
+        for (Map.Entry<String, Statistics> entry : new TreeMap<>(statistics).entrySet()) {
+            lines.add(entry.getKey() + ": " + entry.getValue());
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    private static class Statistics {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder sessions = new LongAdder();
+        private final LongAdder nodes = new LongAdder();
+        private final LongAdder properties = new LongAdder();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS_MICROS.length + 1);
+
+        private void record(long durationNanos, int sessions, int nodes, int properties) {
+            count.increment();
+            totalNanos.add(durationNanos);
+            this.sessions.add(sessions);
+            this.nodes.add(nodes);
+            this.properties.add(properties);
+
+            final long micros = durationNanos / 1000;
+            int bucket = 0;
+            while (bucket < BUCKETS_MICROS.length && micros >= BUCKETS_MICROS[bucket]) {
+                bucket++;
+            }
+            histogram.incrementAndGet(bucket);
+        }
+
+        @Override
+        public String toString() {
+            final long calls = count.sum();
+            final StringBuilder result = new StringBuilder()
+                    .append("count=").append(calls)
+                    .append(" avgMicros=").append(calls > 0 ? totalNanos.sum() / calls / 1000 : 0)
+                    .append(" sessions=").append(sessions.sum())
+                    .append(" nodes=").append(nodes.sum())
+                    .append(" properties=").append(properties.sum())
+                    .append(" histogram=[");
+            for (int i = 0; i < histogram.length(); i++) {
+                if (i > 0) {
+                    result.append(", ");
+                }
+                if (i < BUCKETS_MICROS.length) {
+                    result.append('<').append(BUCKETS_MICROS[i]);
+                } else {
+                    result.append(">=").append(BUCKETS_MICROS[i - 1]);
+                }
+                result.append("us:").append(histogram.get(i));
+            }
+            return result.append(']').toString();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import org.apache.jackrabbit.api.JackrabbitValue;
+import org.jahia.api.Constants;
+import org.jahia.services.content.JCRNodeWrapper;
+
+import javax.jcr.Binary;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A binary property. Its content is never loaded as a whole: the size comes from the repository, the digest is
+ * computed while streaming the content, and clients fetch it either from its URL, which supports range requests, or
+ * in chunks.
+ */
+public class GQLBinary {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_DIGESTS = 10000;
+
+    // digests of recently digested contents, by content identity or by version of the property holding them
+    private static final Map<String, String> digests = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_DIGESTS;
+        }
+    };
+
+    private final GQLNode parent;
+    private final JCRNodeWrapper node;
+    private final Property property;
+    private final int index;
+    private String digest;
+
+    GQLBinary(GQLNode parent, JCRNodeWrapper node, Property property) {
+        this(parent, node, property, -1);
+    }
+
+    /**
+     * @param parent the node whose properties field returned this binary, whose request context is used to read it
+     * @param index  the index of the value in the multi-valued property, or -1 if the property is single-valued
+     */
+    GQLBinary(GQLNode parent, JCRNodeWrapper node, Property property, int index) {
+        this.parent = parent;
+        this.node = node;
+        this.property = property;
+        this.index = index;
+    }
+
+    GQLNode getParent() {
+        return parent;
+    }
+
+    /**
+     * @return the binary value, to be disposed of by the caller
+     */
+    Binary getBinary() throws RepositoryException {
+        return index < 0 ? property.getBinary() : property.getValues()[index].getBinary();
+    }
+
+    public long getSize() throws RepositoryException {
+        return index < 0 ? property.getLength() : property.getLengths()[index];
+    }
+
+    public String getMimeType() throws RepositoryException {
+        return node.hasProperty(Constants.JCR_MIMETYPE) ? node.getProperty(Constants.JCR_MIMETYPE).getString() : null;
+    }
+
+    /**
+     * @return the hexadecimal SHA-256 digest of the content, only computed if the same content wasn't digested recently
+     */
+    public synchronized String getDigest() throws RepositoryException, IOException {
+        if (digest == null) {
+            final String key = getDigestKey();
+            if (key != null) {
+                synchronized (digests) {
+                    digest = digests.get(key);
+                }
+                if (digest != null) {
+                    return digest;
+                }
+            }
+
+            final MessageDigest messageDigest;
+            try {
+                messageDigest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+
+            final Binary binary = getBinary();
+            try (InputStream stream = new DigestInputStream(binary.getStream(), messageDigest)) {
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                while (stream.read(buffer) != -1) {
+                    // only digesting
+                }
+            } finally {
+                binary.dispose();
+            }
+
+            digest = GraphQLNodeRegistry.toHex(messageDigest.digest());
+            if (key != null) {
+                synchronized (digests) {
+                    digests.put(key, digest);
+                }
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * @return the key of the digest of the content: the identity of the content if the repository provides one, e.g.
+     * its data store identifier, otherwise the property and the last modification of its node, or {@code null} if the
+     * digest can't be cached because changes of the content can't be told
+     */
+    private String getDigestKey() throws RepositoryException {
+        final Value value = index < 0 ? property.getValue() : property.getValues()[index];
+        if (value instanceof JackrabbitValue) {
+            final String identity = ((JackrabbitValue) value).getContentIdentity();
+            if (identity != null) {
+                return identity;
+            }
+        }
+        if (!node.hasProperty(Constants.JCR_LASTMODIFIED)) {
+            return null;
+        }
+        return parent.getWs() + '\u0000' + node.getIdentifier() + '\u0000' + property.getName() + '\u0000' + index
+                + '\u0000' + node.getProperty(Constants.JCR_LASTMODIFIED).getDate().getTimeInMillis() + '\u0000'
+                + getSize();
+    }
+
+    /**
+     * @return the URL of the file holding this binary, served with support for range requests, or {@code null} if
+     * the binary isn't the content of a file
+     */
+    public String getUrl() throws RepositoryException {
+        if (Constants.JCR_DATA.equals(property.getName()) && node.isNodeType(Constants.NT_RESOURCE)) {
+            final JCRNodeWrapper file = node.getParent();
+            if (file.isNodeType(Constants.NT_FILE)) {
+                return file.getUrl();
+            }
+        }
+        return null;
+    }
+}
@@ -43,51 +43,103 @@
  */
 package org.jahia.modules.graphql.jcr.provider;
 
+import graphql.schema.GraphQLObjectType;
 import org.jahia.api.Constants;
+import org.jahia.services.content.JCRNodeWrapper;
 
-import javax.jcr.Node;
 import javax.jcr.RepositoryException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 
 /**
  * @author Christophe Laprun
  */
 public class GQLNode implements GQLItem {
-    private final String name;
+    private final JCRNodeWrapper node;
     private final String type;
-    private final String path;
-    private final String id;
+    private final GraphQLObjectType objectType;
     private final GQLItems items;
     private final String ws;
     private final Locale lang;
+    private final List<Locale> fallbackLangs;
+    private final JCRRequestContext context;
+    // only read from the node when requested, most queries only select a few of these
+    private String name;
+    private String path;
+    private String id;
+    private NodeBatch batch;
+    private NodeSnapshot snapshot;
 
     static final GQLNode ROOT = new GQLNode("", "rep:root", "/", "cafebabe-cafe-babe-cafe-babecafebabe");
 
-    GQLNode(Node node, String ws, Locale lang) {
+    /**
+     * @param fallbackLangs the locales to read properties from when they have no value in the specified locale, in
+     *                      order
+     */
+    GQLNode(JCRNodeWrapper node, String ws, Locale lang, List<Locale> fallbackLangs, JCRRequestContext context) {
         try {
-            name = node.getName();
+            this.node = node;
+            // needed to resolve the GraphQL type of this node
             type = node.getPrimaryNodeType().getName();
-            path = node.getPath();
-            id = node.getIdentifier();
+            objectType = context != null ? context.getObjectType(type) : null;
             items = new GQLItems(this);
             this.ws = ws;
             this.lang = lang;
+            this.fallbackLangs = fallbackLangs;
+            this.context = context;
+            if (context != null) {
+                context.nodeCreated(this);
+            }
         } catch (RepositoryException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Creates a node from a cached snapshot: its JCR node is only read if fields need more than the snapshot holds.
+     */
+    GQLNode(NodeSnapshot snapshot, String ws, List<Locale> fallbackLangs, JCRRequestContext context) {
+        this.node = null;
+        this.snapshot = snapshot;
+        this.name = snapshot.getName();
+        this.type = snapshot.getType();
+        this.path = snapshot.getPath();
+        this.id = snapshot.getId();
+        this.objectType = context != null ? context.getObjectType(type) : null;
+        this.ws = ws;
+        this.lang = snapshot.getLang();
+        this.fallbackLangs = fallbackLangs;
+        this.context = context;
+        items = new GQLItems(this);
+        if (context != null) {
+            context.nodeCreated(this);
+        }
+    }
+
     private GQLNode(String name, String type, String path, String id) {
+        this.node = null;
         this.name = name;
         this.type = type;
+        this.objectType = null;
         this.path = path;
         this.id = id;
         this.ws = Constants.EDIT_WORKSPACE;
         this.lang = Locale.ENGLISH;
+        this.fallbackLangs = Collections.emptyList();
+        this.context = null;
         items = new GQLItems(this);
     }
 
     public String getName() {
+        if (name == null) {
+            try {
+                name = node.getName();
+            } catch (RepositoryException e) {
+                throw new RuntimeException(e);
+            }
+        }
         return name;
     }
 
@@ -95,11 +147,32 @@ public class GQLNode implements GQLItem {
         return type;
     }
 
+    /**
+     * @return the GraphQL type of this node, resolved when it was created, or {@code null} if it wasn't
+     */
+    GraphQLObjectType getObjectType() {
+        return objectType;
+    }
+
     public String getPath() {
+        if (path == null) {
+            try {
+                path = node.getPath();
+            } catch (RepositoryException e) {
+                throw new RuntimeException(e);
+            }
+        }
         return path;
     }
 
     public String getId() {
+        if (id == null) {
+            try {
+                id = node.getIdentifier();
+            } catch (RepositoryException e) {
+                throw new RuntimeException(e);
+            }
+        }
         return id;
     }
 
@@ -119,9 +192,65 @@ public class GQLNode implements GQLItem {
         return lang;
     }
 
+    List<Locale> getFallbackLangs() {
+        return fallbackLangs;
+    }
+
+    /**
+     * @return the locale of this node followed by its fallback locales
+     */
+    List<Locale> getLocales() {
+        if (fallbackLangs.isEmpty()) {
+            return Collections.singletonList(lang);
+        }
+        final List<Locale> locales = new ArrayList<>(fallbackLangs.size() + 1);
+        locales.add(lang);
+        for (Locale fallbackLang : fallbackLangs) {
+            if (!locales.contains(fallbackLang)) {
+                locales.add(fallbackLang);
+            }
+        }
+        return locales;
+    }
+
+    JCRRequestContext getContext() {
+        return context;
+    }
+
+    /**
+     * @return the cached snapshot property values of this node are read from and added to, {@code null} if there is
+     * none or if values depend on fallback locales
+     */
+    NodeSnapshot getSnapshot() {
+        return fallbackLangs.isEmpty() ? snapshot : null;
+    }
+
+    void setSnapshot(NodeSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * @return the JCR node this node was created from, {@code null} for the root node and nodes created from a
+     * snapshot
+     */
+    JCRNodeWrapper getNode() {
+        return node;
+    }
+
+    /**
+     * @return the nodes returned along with this one by a list field, {@code null} if it was returned on its own
+     */
+    NodeBatch getBatch() {
+        return batch;
+    }
+
+    void setBatch(NodeBatch batch) {
+        this.batch = batch;
+    }
+
     @Override
     public String toString() {
-        return type + " node id:" + id + " path:" + path + " name: " + name;
+        return type + " node id:" + getId() + " path:" + getPath() + " name: " + getName();
     }
 
     @Override
@@ -0,0 +1,118 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import org.jahia.services.content.JCRNodeWrapper;
+
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The properties of a node, along with the ones which were read ahead of their fields because they were selected.
+ */
+class GQLProperties extends GQLItems {
+    private final Map<String, Prefetched> prefetched = new HashMap<>();
+    private final Map<String, Object> cached = new HashMap<>();
+
+    GQLProperties(GQLNode gqlNode) {
+        super(gqlNode);
+    }
+
+    /**
+     * @param holder   the node the property was read from, either the node itself or its translation, {@code null}
+     *                 if the property doesn't exist
+     * @param property the property, {@code null} if it doesn't exist
+     */
+    void prefetched(String name, JCRNodeWrapper holder, Property property) {
+        prefetched.put(name, new Prefetched(holder, property));
+    }
+
+    /**
+     * @param value the value of the property read from a {@link NodeSnapshot}, {@code null} if it doesn't exist
+     */
+    void cached(String name, Object value) {
+        cached.put(name, value);
+    }
+
+    boolean isCached(String name) {
+        return cached.containsKey(name);
+    }
+
+    Object getCachedValue(String name) {
+        return cached.get(name);
+    }
+
+    boolean isPrefetched(String name) {
+        return prefetched.containsKey(name);
+    }
+
+    JCRNodeWrapper getHolder(String name) {
+        return prefetched.get(name).holder;
+    }
+
+    Property getProperty(String name) {
+        return prefetched.get(name).property;
+    }
+
+    /**
+     * Adds the values of the prefetched properties to the specified snapshot.
+     */
+    void addTo(NodeSnapshot snapshot) throws RepositoryException {
+        for (Map.Entry<String, Prefetched> entry : prefetched.entrySet()) {
+            snapshot.addValue(entry.getKey(), entry.getValue().property);
+        }
+    }
+
+    private static class Prefetched {
+        private final JCRNodeWrapper holder;
+        private final Property property;
+
+        private Prefetched(JCRNodeWrapper holder, Property property) {
+            this.holder = holder;
+            this.property = property;
+        }
+    }
+}
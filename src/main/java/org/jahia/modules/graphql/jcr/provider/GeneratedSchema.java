@@ -0,0 +1,154 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import graphql.schema.GraphQLObjectType;
+
+import java.util.*;
+
+/**
+ * An immutable snapshot of the GraphQL types generated from the JCR node types. A new snapshot is published as a whole
+ * whenever node types change, so that queries being executed keep using the one they started with.
+ */
+class GeneratedSchema {
+    static final GeneratedSchema EMPTY = new GeneratedSchema(null, Collections.<String, GraphQLObjectType>emptyMap(),
+            Collections.<String, GraphQLObjectType>emptyMap(), Collections.<String, NodeTypeModel>emptyMap(),
+            Collections.<String, Set<String>>emptyMap());
+
+    private final GraphQLObjectType query;
+    private final Map<String, GraphQLObjectType> types;
+    private final Map<String, GraphQLObjectType> connectionTypes;
+    private final Map<String, NodeTypeModel> models;
+    private final Map<String, Set<String>> dependencies;
+    private final Map<String, GraphQLObjectType> nodeTypes;
+
+    /**
+     * @param query           the query root type
+     * @param types           generated types, by escaped name
+     * @param connectionTypes generated connection types, by escaped name of their node type
+     * @param models          models of the node type definitions the types were generated from, by node type name
+     * @param dependencies    names of the node types each node type references through its children, by node type
+     *                        name
+     */
+    GeneratedSchema(GraphQLObjectType query, Map<String, GraphQLObjectType> types,
+                    Map<String, GraphQLObjectType> connectionTypes, Map<String, NodeTypeModel> models,
+                    Map<String, Set<String>> dependencies) {
+        this.query = query;
+        this.types = Collections.unmodifiableMap(types);
+        this.connectionTypes = Collections.unmodifiableMap(connectionTypes);
+        this.models = Collections.unmodifiableMap(models);
+        this.dependencies = Collections.unmodifiableMap(dependencies);
+
+        // resolved once here rather than for each node returned through the node union
+        final Map<String, GraphQLObjectType> nodeTypes = new HashMap<>(models.size());
+        for (String name : models.keySet()) {
+            final GraphQLObjectType type = types.get(GraphQLNodeRegistry.escape(name));
+            if (type != null) {
+                nodeTypes.put(name, type);
+            }
+        }
+        this.nodeTypes = nodeTypes;
+    }
+
+    GraphQLObjectType getQuery() {
+        return query;
+    }
+
+    Map<String, GraphQLObjectType> getTypes() {
+        return types;
+    }
+
+    Map<String, GraphQLObjectType> getConnectionTypes() {
+        return connectionTypes;
+    }
+
+    Map<String, NodeTypeModel> getModels() {
+        return models;
+    }
+
+    Map<String, Set<String>> getDependencies() {
+        return dependencies;
+    }
+
+    /**
+     * @return the type generated for the specified node type, or {@code null} if there is none
+     */
+    GraphQLObjectType getObjectType(String nodeTypeName) {
+        return nodeTypes.get(nodeTypeName);
+    }
+
+    /**
+     * Computes the node types which need to be regenerated when the specified ones change: generated types embed the
+     * types of their children, so a change propagates to all the types referencing the changed ones, transitively.
+     *
+     * @return the specified node type names along with the names of the node types depending on them
+     */
+    Set<String> withDependents(Collection<String> changed) {
+        final Map<String, Set<String>> dependents = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : dependencies.entrySet()) {
+            for (String dependency : entry.getValue()) {
+                Set<String> set = dependents.get(dependency);
+                if (set == null) {
+                    set = new HashSet<>();
+                    dependents.put(dependency, set);
+                }
+                set.add(entry.getKey());
+            }
+        }
+
+        final Set<String> affected = new HashSet<>(changed);
+        final Deque<String> toVisit = new ArrayDeque<>(changed);
+        while (!toVisit.isEmpty()) {
+            final Set<String> set = dependents.get(toVisit.pop());
+            if (set != null) {
+                for (String dependent : set) {
+                    if (affected.add(dependent)) {
+                        toVisit.push(dependent);
+                    }
+                }
+            }
+        }
+        return affected;
+    }
+}
@@ -44,21 +44,27 @@
 package org.jahia.modules.graphql.jcr.provider;
 
 import graphql.schema.*;
-import org.jahia.api.Constants;
 import org.jahia.services.content.JCRSessionFactory;
 import org.jahia.services.content.nodetypes.ExtendedNodeType;
 import org.jahia.services.content.nodetypes.NodeTypeRegistry;
 import org.jahia.settings.SettingsBean;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.FrameworkUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.jcr.PropertyType;
 import javax.jcr.nodetype.NoSuchNodeTypeException;
-import javax.jcr.nodetype.NodeDefinition;
-import javax.jcr.nodetype.PropertyDefinition;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Matcher;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import static graphql.Scalars.*;
@@ -74,28 +80,90 @@ public class GraphQLNodeRegistry {
     private static final GraphQLEnumType WORKSPACES_ENUM = GraphQLEnumType.newEnum().name("workspaces").value("DEFAULT")
             .value("LIVE")
             .build();
+    private static final GraphQLEnumType OPERATORS_ENUM = GraphQLEnumType.newEnum().name("operators").value("EQ")
+            .value("NE")
+            .value("LT")
+            .value("LE")
+            .value("GT")
+            .value("GE")
+            .value("LIKE")
+            .build();
+    private static final GraphQLInputObjectType constraintType = GraphQLInputObjectType.newInputObject()
+            .name("constraint")
+            .field(GraphQLInputObjectField.newInputObjectField()
+                    .name("property")
+                    .type(new GraphQLNonNull(GraphQLString))
+                    .build())
+            .field(GraphQLInputObjectField.newInputObjectField()
+                    .name("op")
+                    .type(OPERATORS_ENUM)
+                    .defaultValue("EQ")
+                    .build())
+            .field(GraphQLInputObjectField.newInputObjectField()
+                    .name("value")
+                    .type(GraphQLString)
+                    .description("Omitted to match nodes without the property with EQ, or with it with NE. Dates are "
+                            + "given as epoch milliseconds, as returned by properties, or in ISO-8601 format")
+                    .build())
+            .build();
     public static final String QUERY_NAME = "nodes";
+    private static final String NODE_NAME = "node";
+    static final String BINARY_NAME = "Binary";
     private static Logger logger = LoggerFactory.getLogger(JCRGraphQLQueryProvider.class);
-    private static Matcher VALID_NAME = Pattern.compile("^[_a-zA-Z][_a-zA-Z0-9]*$").matcher("");
+    private static final Pattern VALID_NAME = Pattern.compile("^[_a-zA-Z][_a-zA-Z0-9]*$");
+    // names escaped while generating the schema, in both directions, so that resolving queries doesn't convert names
+    private static final ConcurrentMap<String, String> ESCAPED_NAMES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, String> UNESCAPED_NAMES = new ConcurrentHashMap<>();
 
-    private static final Locale DEFAULT = Locale.getDefault();
+    private static final long REFRESH_DELAY = 2;
 
     private JCRSessionFactory repository;
     private NodeTypeRegistry nodeTypeRegistry;
-    private static final Map<String, GraphQLOutputType> knownTypes = new ConcurrentHashMap<>();
-    private final Set<String> unresolved = new HashSet<>();
+    private FetcherMetrics metrics;
+    private volatile GeneratedSchema schema = GeneratedSchema.EMPTY;
+    // state of the generation in progress, only accessed while holding the registry lock and by generation workers
+    private Map<String, GraphQLObjectType> knownTypes;
+    private Map<String, GraphQLObjectType> connectionTypes;
+    private Map<String, Set<String>> dependencies;
+    private Map<String, NodeTypeModel> models;
+    private boolean parallelGeneration;
+    private final Set<String> unresolved = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private int schemaParallelism = 1;
+    private ForkJoinPool generationPool;
+    private BundleContext bundleContext;
+    private BundleListener bundleListener;
+    private ScheduledExecutorService refresher;
+    private ScheduledFuture<?> pendingRefresh;
+    private final Object refreshLock = new Object();
     private final DataFetcher nodeFetcher = new NodeDataFetcher(this);
     private final DataFetcher childrenFetcher = new ChildrenDataFetcher(this);
     private final DataFetcher propertiesFetcher = new PropertiesDataFetcher(this);
-    private static final TypeResolver itemResolver = new TypeResolver() {
+    private final DataFetcher propertiesPrefetcher = new PropertiesPrefetchDataFetcher(this);
+    private final DataFetcher searchFetcher = new SearchDataFetcher(this);
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong sessionsOpened = new AtomicLong();
+    private final NodeLookupCoalescer lookupCoalescer = new NodeLookupCoalescer();
+    private boolean coalesceLookups = true;
+    private boolean prefetchProperties = true;
+    private NodeSnapshotCache snapshotCache;
+    private File snapshotDirectory;
+    private final List<SchemaListener> schemaListeners = new CopyOnWriteArrayList<>();
+    private final TypeResolver itemResolver = new TypeResolver() {
         @Override
         public GraphQLObjectType getType(Object object) {
+            if (object instanceof GQLNode) {
+                final GraphQLObjectType resolved = ((GQLNode) object).getObjectType();
+                if (resolved != null) {
+                    return resolved;
+                }
+            }
+
             GQLItem item = (GQLItem) object;
             final String typeName = item.getType();
-            GraphQLOutputType type = knownTypes.get(escape(typeName));
+            GraphQLObjectType type = schema.getTypes().get(escape(typeName));
 
-            if (type instanceof GraphQLObjectType) {
-                return (GraphQLObjectType) type;
+            if (type != null) {
+                return type;
             } else {
                 throw new IllegalArgumentException("Couldn't resolve item " + item + " as a GraphQLObjectType");
             }
@@ -118,7 +186,36 @@ public class GraphQLNodeRegistry {
             .name("id")
             .type(GraphQLID)
             .build();
-    private static final GraphQLInterfaceType genericType = GraphQLInterfaceType.newInterface()
+    private static final GraphQLObjectType pageInfoType = newObject()
+            .name("PageInfo")
+            .field(newFieldDefinition().name("hasNextPage").type(GraphQLBoolean).build())
+            .field(newFieldDefinition().name("hasPreviousPage").type(GraphQLBoolean).build())
+            .field(newFieldDefinition().name("startCursor").type(GraphQLString).build())
+            .field(newFieldDefinition().name("endCursor").type(GraphQLString).build())
+            .build();
+    private static final GraphQLArgument fallbackLangsArgument = newArgument()
+            .name("fallbackLangs")
+            .type(new GraphQLList(GraphQLString))
+            .description("Languages to read properties from when they have no value in lang, in order")
+            .build();
+    private final GraphQLObjectType binaryType = newObject()
+            .name(BINARY_NAME)
+            .description("The content of a binary property, which can be downloaded from its URL or read in chunks")
+            .field(newFieldDefinition().name("size").type(GraphQLLong).build())
+            .field(newFieldDefinition().name("mimeType").type(GraphQLString).build())
+            .field(newFieldDefinition().name("digest").type(GraphQLString)
+                    .description("Hexadecimal SHA-256 digest of the content").build())
+            .field(newFieldDefinition().name("url").type(GraphQLString)
+                    .description("URL of the file holding the content, supporting range requests").build())
+            .field(newFieldDefinition().name("chunk").type(GraphQLString)
+                    .description("Base64-encoded content, starting at the specified offset")
+                    .argument(newArgument().name("offset").type(GraphQLLong).defaultValue(0L).build())
+                    .argument(newArgument().name("length").type(GraphQLInt)
+                            .defaultValue(BinaryChunkDataFetcher.DEFAULT_CHUNK_SIZE).build())
+                    .dataFetcher(new BinaryChunkDataFetcher(this))
+                    .build())
+            .build();
+    private final GraphQLInterfaceType genericType = GraphQLInterfaceType.newInterface()
             .name("generic")
             .typeResolver(itemResolver)
             .field(nameField)
@@ -127,6 +224,28 @@ public class GraphQLNodeRegistry {
             .field(idField)
             .description("A generic interface to minimal node information")
             .build();
+    // Node types are reused across schema generations, so the types they hold must be the same in every generated
+    // schema: they point to the generic interface rather than to the node union, which is rebuilt each generation.
+    private final GraphQLObjectType descendantType = newObject()
+            .name("Descendant")
+            .description("A descendant node, along with the identifier of its parent and its depth")
+            .field(newFieldDefinition().name("node").type(genericType).build())
+            .field(newFieldDefinition().name("parentId").type(GraphQLID).build())
+            .field(newFieldDefinition().name("depth").type(GraphQLInt)
+                    .description("1 for children, 2 for grandchildren, and so on").build())
+            .build();
+    private final GraphQLFieldDefinition descendantsField = newFieldDefinition()
+            .name("descendants")
+            .description("Descendants of the node, read in a single breadth-first traversal")
+            .type(new GraphQLList(descendantType))
+            .argument(newArgument().name("depth").type(GraphQLInt).defaultValue(DescendantsDataFetcher.DEFAULT_DEPTH)
+                    .description("Only return descendants down to this depth").build())
+            .argument(newArgument().name("types").type(new GraphQLList(GraphQLString))
+                    .description("Only return, and traverse, descendants of these node types").build())
+            .argument(newArgument().name("limit").type(GraphQLInt).defaultValue(DescendantsDataFetcher.DEFAULT_LIMIT)
+                    .description("Only return this number of descendants").build())
+            .dataFetcher(new DescendantsDataFetcher(this))
+            .build();
 
     public void setRepository(JCRSessionFactory repository) {
         this.repository = repository;
@@ -140,87 +259,598 @@ public class GraphQLNodeRegistry {
         this.nodeTypeRegistry = nodeTypeRegistry;
     }
 
+    NodeTypeRegistry getNodeTypeRegistry() {
+        return nodeTypeRegistry;
+    }
+
+    public void setMetrics(FetcherMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the metrics data fetchers record their activity in, {@code null} if none are configured
+     */
+    FetcherMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param schemaParallelism the number of threads GraphQL types are created on, 1 to create them on the thread
+     *                          generating the schema
+     */
+    public void setSchemaParallelism(int schemaParallelism) {
+        this.schemaParallelism = schemaParallelism;
+    }
+
+    /**
+     * @return the number of request contexts created since this registry was started
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of JCR sessions opened by request contexts since this registry was started
+     */
+    public long getSessionsOpenedCount() {
+        return sessionsOpened.get();
+    }
+
+    /**
+     * @param coalesceLookups whether identical node lookups issued concurrently by different requests should share
+     *                        their result instead of all reading the repository, see {@link NodeLookupCoalescer}
+     */
+    public void setCoalesceLookups(boolean coalesceLookups) {
+        this.coalesceLookups = coalesceLookups;
+    }
+
+    /**
+     * @param prefetchProperties whether the properties field of nodes should read all its selected properties at once,
+     *                           see {@link PropertiesPrefetchDataFetcher}, instead of each property field reading its
+     *                           own; only taken into account by schemas generated afterwards
+     */
+    void setPrefetchProperties(boolean prefetchProperties) {
+        this.prefetchProperties = prefetchProperties;
+    }
+
+    public void setSnapshotCache(NodeSnapshotCache snapshotCache) {
+        this.snapshotCache = snapshotCache;
+    }
+
+    /**
+     * Notified when a regeneration publishes a new query type, for components holding on to the previous one.
+     */
+    interface SchemaListener {
+        void schemaChanged(GraphQLObjectType query);
+    }
+
+    void addSchemaListener(SchemaListener listener) {
+        schemaListeners.add(listener);
+    }
+
+    void removeSchemaListener(SchemaListener listener) {
+        schemaListeners.remove(listener);
+    }
+
+    /**
+     * @return the cache of live node snapshots, {@code null} if there is none or if it is disabled
+     */
+    NodeSnapshotCache getSnapshotCache() {
+        return snapshotCache != null && snapshotCache.isEnabled() ? snapshotCache : null;
+    }
+
+    /**
+     * @return the number of root node lookups by path or identifier since this registry was started
+     */
+    public long getNodeLookupCount() {
+        return lookupCoalescer.getLookups();
+    }
+
+    /**
+     * @return the number of root node lookups which were served the result of an identical concurrent one since this
+     * registry was started
+     */
+    public long getCoalescedLookupCount() {
+        return lookupCoalescer.getCoalesced();
+    }
+
+    /**
+     * @return the coalescer root node lookups should go through, {@code null} if they shouldn't be coalesced
+     */
+    NodeLookupCoalescer getLookupCoalescer() {
+        return coalesceLookups ? lookupCoalescer : null;
+    }
+
+    /**
+     * @return the type generated for the specified node type in the current schema, or {@code null} if there is none
+     */
+    GraphQLObjectType getObjectType(String nodeTypeName) {
+        return schema.getObjectType(nodeTypeName);
+    }
+
+    void requestStarted() {
+        requests.incrementAndGet();
+    }
+
+    void sessionOpened() {
+        sessionsOpened.incrementAndGet();
+    }
+
+    public void start() {
+        start(true);
+    }
+
+    /**
+     * @param generate whether the schema should be generated in the background right away, rather than when first
+     *                 needed
+     */
+    void start(boolean generate) {
+        if (schemaParallelism > 1) {
+            generationPool = new ForkJoinPool(schemaParallelism);
+        }
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "GraphQL schema refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // modules register and unregister their node type definitions when they are started or stopped
+        final Bundle bundle = FrameworkUtil.getBundle(GraphQLNodeRegistry.class);
+        if (bundle != null && bundle.getBundleContext() != null) {
+            bundleContext = bundle.getBundleContext();
+            bundleListener = new BundleListener() {
+                @Override
+                public void bundleChanged(BundleEvent event) {
+                    switch (event.getType()) {
+                        case BundleEvent.STARTED:
+                        case BundleEvent.STOPPED:
+                        case BundleEvent.UPDATED:
+                        case BundleEvent.UNINSTALLED:
+                            scheduleRefresh();
+                            break;
+                        default:
+                            // nothing to do
+                    }
+                }
+            };
+            bundleContext.addBundleListener(bundleListener);
+        }
+
+        if (generate) {
+            // generate the schema in the background so that it's ready when the first query comes in
+            refresher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        getQuery();
+                    } catch (RuntimeException e) {
+                        logger.error("Couldn't generate GraphQL schema", e);
+                    }
+                }
+            });
+        }
+    }
+
+    public void stop() {
+        if (bundleContext != null) {
+            bundleContext.removeBundleListener(bundleListener);
+            bundleContext = null;
+        }
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+        if (generationPool != null) {
+            generationPool.shutdownNow();
+            generationPool = null;
+        }
+    }
+
+    private void scheduleRefresh() {
+        // coalesce bursts of events, e.g. when several modules are deployed at once
+        synchronized (refreshLock) {
+            if (refresher != null && (pendingRefresh == null || pendingRefresh.isDone())) {
+                pendingRefresh = refresher.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        refresh();
+                    }
+                }, REFRESH_DELAY, TimeUnit.SECONDS);
+            }
+        }
+    }
+
     GraphQLObjectType getQuery() {
+        GraphQLObjectType query = schema.getQuery();
+        if (query == null) {
+            generate();
+            query = schema.getQuery();
+        }
+        return query;
+    }
+
+    /**
+     * Performs the initial generation, from the persisted snapshot if it was taken from the same node type
+     * definitions.
+     */
+    private synchronized void generate() {
+        if (schema.getQuery() != null) {
+            return;
+        }
+
+        final String key = getSnapshotKey();
+        final File snapshotFile = getSnapshotFile(key);
+        if (snapshotFile != null && snapshotFile.exists()) {
+            final long start = System.currentTimeMillis();
+            final Collection<NodeTypeModel> models = SchemaSnapshot.read(snapshotFile, key);
+            if (models != null) {
+                logger.info("Read " + models.size() + " node types from " + snapshotFile + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+                regenerate(models);
+                return;
+            }
+        }
+
+        regenerate();
+        if (snapshotFile != null) {
+            SchemaSnapshot.write(snapshotFile, key, schema.getModels().values());
+        }
+    }
+
+    /**
+     * Computes a key identifying the current node type definitions: a digest of the definitions of all the node types,
+     * along with the version of the modules defining them, whose resource bundles hold their descriptions.
+     */
+    private String getSnapshotKey() {
+        final Map<String, String> modules = new HashMap<>();
+        final BundleContext context = bundleContext;
+        if (context != null) {
+            for (Bundle bundle : context.getBundles()) {
+                modules.put(bundle.getSymbolicName(), bundle.getVersion() + "|" + bundle.getLastModified());
+            }
+        }
+        final List<String> entries = new ArrayList<>();
+        for (ExtendedNodeType type : nodeTypeRegistry.getAllNodeTypes()) {
+            entries.add(NodeTypeModel.serializeDefinition(type) + '|' + type.getSystemId() + '|'
+                    + modules.get(type.getSystemId()));
+        }
+        Collections.sort(entries);
+
+        final StringBuilder key = new StringBuilder();
+        for (String entry : entries) {
+            key.append(entry).append('\n');
+        }
+        return digest(key.toString());
+    }
+
+    /**
+     * @param snapshotDirectory the directory the schema snapshot is written to, {@code graphql} in the var directory of
+     *                          Jahia by default
+     */
+    void setSnapshotDirectory(File snapshotDirectory) {
+        this.snapshotDirectory = snapshotDirectory;
+    }
+
+    private File getSnapshotFile(String key) {
+        File directory = snapshotDirectory;
+        if (directory == null) {
+            final SettingsBean settings = SettingsBean.getInstance();
+            if (settings == null || settings.getJahiaVarDiskPath() == null) {
+                return null;
+            }
+            directory = new File(settings.getJahiaVarDiskPath(), "graphql");
+        }
+        return new File(directory, SchemaSnapshot.PREFIX + key + SchemaSnapshot.SUFFIX);
+    }
+
+    /**
+     * Regenerates the types of the node types which were registered, unregistered or modified since the last
+     * generation, if the schema was already generated, then notifies the {@link SchemaListener}s if the query type
+     * changed.
+     */
+    public void refresh() {
+        final GraphQLObjectType query;
+        synchronized (this) {
+            final GraphQLObjectType previous = schema.getQuery();
+            if (previous == null) {
+                return;
+            }
+            try {
+                regenerate();
+            } catch (RuntimeException e) {
+                logger.error("Couldn't refresh GraphQL schema, keeping the current one", e);
+            }
+            query = schema.getQuery();
+            if (query == previous) {
+                return;
+            }
+        }
+
+        // outside of the lock, listeners might query the registry from other threads
+        for (SchemaListener listener : schemaListeners) {
+            try {
+                listener.schemaChanged(query);
+            } catch (RuntimeException e) {
+                logger.error("Couldn't notify " + listener + " of the new GraphQL schema", e);
+            }
+        }
+    }
+
+    private void regenerate() {
+        final List<NodeTypeModel> nodeTypes = new ArrayList<>();
+        for (ExtendedNodeType type : nodeTypeRegistry.getAllNodeTypes()) {
+            nodeTypes.add(NodeTypeModel.from(type));
+        }
+        regenerate(nodeTypes);
+    }
+
+    private synchronized void regenerate(Collection<NodeTypeModel> nodeTypes) {
         final long start = System.currentTimeMillis();
-        final GraphQLUnionType.Builder nodeTypeBuilder = newUnionType().name("node").typeResolver(itemResolver);
-        final GraphQLObjectType.Builder typesBuilder = newObject()
-                .name(QUERY_NAME);
+        final GeneratedSchema previous = schema;
 
-        final NodeTypeRegistry.JahiaNodeTypeIterator nodeTypes = nodeTypeRegistry.getAllNodeTypes();
-        for (ExtendedNodeType type : nodeTypes) {
-            final String typeName = escape(type.getName());
-            if (!knownTypes.containsKey(typeName)) {
-                final GraphQLObjectType gqlType = createGraphQLType(type, typeName);
+        models = new LinkedHashMap<>();
+        for (NodeTypeModel model : nodeTypes) {
+            models.put(model.getName(), model);
+        }
+
+        final Map<String, NodeTypeModel> previousModels = previous.getModels();
+        final Set<String> changed = new HashSet<>(previousModels.keySet());
+        changed.removeAll(models.keySet());
+        for (NodeTypeModel model : models.values()) {
+            final NodeTypeModel previousModel = previousModels.get(model.getName());
+            if (previousModel == null || !model.getSignature().equals(previousModel.getSignature())) {
+                changed.add(model.getName());
+            }
+        }
+        if (changed.isEmpty() && previous.getQuery() != null) {
+            logger.debug("Node types didn't change, keeping current schema");
+            models = null;
+            return;
+        }
+
+        // start from the current types, minus the ones which need to be regenerated
+        knownTypes = new ConcurrentHashMap<>(previous.getTypes());
+        connectionTypes = new ConcurrentHashMap<>(previous.getConnectionTypes());
+        dependencies = new ConcurrentHashMap<>(previous.getDependencies());
+        for (String affected : previous.withDependents(changed)) {
+            final String escaped = escape(affected);
+            knownTypes.remove(escaped);
+            connectionTypes.remove(escaped);
+            dependencies.remove(affected);
+        }
+        final int reused = knownTypes.size();
+
+        try {
+            if (generationPool != null) {
+                createTypesInParallel(generationPool);
+            }
+            final GraphQLObjectType query = createQuery();
+            dependencies.keySet().retainAll(models.keySet());
+            schema = new GeneratedSchema(query, knownTypes, connectionTypes, models, dependencies);
+        } finally {
+            models = null;
+            knownTypes = null;
+            connectionTypes = null;
+            dependencies = null;
+            unresolved.clear();
+        }
 
-                nodeTypeBuilder.possibleType(gqlType);
+        long duration = System.currentTimeMillis() - start;
+        logger.info("Generated " + (schema.getTypes().size() - reused) + " types in " + duration + " ms ("
+                + schema.getTypes().size() + " types total)");
+    }
+
+    /**
+     * Creates the types which need to be generated on the specified pool, one wave at a time. A wave holds the types
+     * whose dependencies were all created by the previous waves, so that they can embed them like the sequential
+     * generation does. When only cycles are left, the first remaining type is created on its own and references its
+     * missing dependencies by name, to be resolved when the schema is built.
+     */
+    private void createTypesInParallel(ForkJoinPool pool) {
+        // collect the types to create, including the ones which are only used as children
+        final Map<String, NodeTypeModel> pending = new LinkedHashMap<>();
+        final Deque<NodeTypeModel> toVisit = new ArrayDeque<>();
+        for (NodeTypeModel model : models.values()) {
+            if (!knownTypes.containsKey(escape(model.getName()))) {
+                toVisit.add(model);
+            }
+        }
+        while (!toVisit.isEmpty()) {
+            final NodeTypeModel model = toVisit.pop();
+            if (pending.put(model.getName(), model) == null) {
+                for (String dependency : model.getDependencies()) {
+                    if (!pending.containsKey(dependency) && !knownTypes.containsKey(escape(dependency))) {
+                        toVisit.push(getModel(dependency));
+                    }
+                }
+            }
+        }
+
+        parallelGeneration = true;
+        try {
+            while (!pending.isEmpty()) {
+                final List<NodeTypeModel> wave = new ArrayList<>();
+                for (NodeTypeModel model : pending.values()) {
+                    if (isReady(model, pending)) {
+                        wave.add(model);
+                    }
+                }
+                if (wave.isEmpty()) {
+                    wave.add(pending.values().iterator().next());
+                }
+
+                final List<Callable<GraphQLObjectType>> tasks = new ArrayList<>(wave.size());
+                for (final NodeTypeModel model : wave) {
+                    tasks.add(new Callable<GraphQLObjectType>() {
+                        @Override
+                        public GraphQLObjectType call() {
+                            return createGraphQLType(model);
+                        }
+                    });
+                }
+                final List<Future<GraphQLObjectType>> created = pool.invokeAll(tasks);
+                for (int i = 0; i < wave.size(); i++) {
+                    final String name = wave.get(i).getName();
+                    knownTypes.put(escape(name), created.get(i).get());
+                    pending.remove(name);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while generating GraphQL types", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            parallelGeneration = false;
+        }
+    }
+
+    private static boolean isReady(NodeTypeModel model, Map<String, NodeTypeModel> pending) {
+        for (String dependency : model.getDependencies()) {
+            // a type referencing itself uses a type reference anyway
+            if (!dependency.equals(model.getName()) && pending.containsKey(dependency)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-                typesBuilder.field(newFieldDefinition()
-                        .name(typeName)
-                        .argument(newArgument().name("path").type(GraphQLString).build())
-                        .argument(newArgument().name("id").type(GraphQLID).build())
-                        .argument(newArgument().name("ws").type(WORKSPACES_ENUM).build())
-                        .argument(newArgument().name("lang").type(GraphQLString).build())
-                        .dataFetcher(nodeFetcher)
-                        .type(gqlType)
-                        .build());
+    private GraphQLObjectType createQuery() {
+        final GraphQLUnionType.Builder nodeTypeBuilder = newUnionType().name(NODE_NAME).typeResolver(itemResolver);
+        final GraphQLObjectType.Builder typesBuilder = newObject()
+                .name(QUERY_NAME);
 
+        for (NodeTypeModel type : models.values()) {
+            final String typeName = escape(type.getName());
+            GraphQLObjectType gqlType = knownTypes.get(typeName);
+            if (gqlType == null) {
+                gqlType = createGraphQLType(type);
                 knownTypes.put(typeName, gqlType);
             } else {
                 logger.debug("Already generated {}", typeName);
             }
+
+            nodeTypeBuilder.possibleType(gqlType);
+
+            typesBuilder.field(newFieldDefinition()
+                    .name(typeName)
+                    .argument(newArgument().name("path").type(GraphQLString).build())
+                    .argument(newArgument().name("id").type(GraphQLID).build())
+                    .argument(newArgument().name("ws").type(WORKSPACES_ENUM).build())
+                    .argument(newArgument().name("lang").type(GraphQLString).build())
+                    .argument(fallbackLangsArgument)
+                    .dataFetcher(nodeFetcher)
+                    .type(gqlType)
+                    .build());
         }
 
+        final GraphQLUnionType nodeType = nodeTypeBuilder.build();
         typesBuilder.field(newFieldDefinition()
                 .name("node")
-                .type(nodeTypeBuilder.build())
+                .type(nodeType)
                 .argument(newArgument().name("path").type(GraphQLString).build())
                 .argument(newArgument().name("id").type(GraphQLID).build())
                 .argument(newArgument().name("ws").type(WORKSPACES_ENUM).build())
                 .argument(newArgument().name("lang").type(GraphQLString).build())
+                .argument(fallbackLangsArgument)
                 .dataFetcher(nodeFetcher)
                 .build());
-        final GraphQLObjectType types = typesBuilder.build();
+        typesBuilder.field(newFieldDefinition()
+                .name("search")
+                .description("Nodes of the specified type matching the specified constraints, using the repository indexes")
+                .type(new GraphQLList(nodeType))
+                .argument(newArgument().name("type").type(new GraphQLNonNull(GraphQLString)).build())
+                .argument(newArgument().name("path").type(GraphQLString)
+                        .description("Only return descendants of the node at this path").build())
+                .argument(newArgument().name("where").type(new GraphQLList(constraintType)).build())
+                .argument(newArgument().name("orderBy").type(GraphQLString).build())
+                .argument(newArgument().name("desc").type(GraphQLBoolean).build())
+                .argument(newArgument().name("limit").type(GraphQLInt).defaultValue(SearchDataFetcher.DEFAULT_LIMIT)
+                        .build())
+                .argument(newArgument().name("offset").type(GraphQLInt).build())
+                .argument(newArgument().name("ws").type(WORKSPACES_ENUM).build())
+                .argument(newArgument().name("lang").type(GraphQLString).build())
+                .argument(fallbackLangsArgument)
+                .dataFetcher(searchFetcher)
+                .build());
+        return typesBuilder.build();
+    }
 
-        long duration = System.currentTimeMillis() - start;
-        logger.info("Generated " + knownTypes.size() + " types in " + duration + " ms");
-        return types;
+    static String digest(String value) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
     }
 
     private static boolean validateNames() {
-        return SettingsBean.getInstance().isDevelopmentMode();
+        // no settings outside of a running server, e.g. in benchmarks
+        final SettingsBean settings = SettingsBean.getInstance();
+        return settings != null && settings.isDevelopmentMode();
     }
 
     static String escape(String name) {
-        name = name.replace(":", "__").replace(".", "___");
-        if (validateNames() && !VALID_NAME.reset(name).matches()) {
-            logger.error("Invalid name: " + name);
+        String escaped = ESCAPED_NAMES.get(name);
+        if (escaped == null) {
+            escaped = name.replace(":", "__").replace(".", "___");
+            if (validateNames() && !VALID_NAME.matcher(escaped).matches()) {
+                logger.error("Invalid name: " + escaped);
+            }
+            final String previous = ESCAPED_NAMES.putIfAbsent(name, escaped);
+            if (previous != null) {
+                return previous;
+            }
+            // escaping isn't injective, e.g. for names containing "__", so don't simply record the reverse mapping
+            UNESCAPED_NAMES.putIfAbsent(escaped, doUnescape(escaped));
         }
-        return name;
+        return escaped;
     }
 
     static String unescape(String name) {
+        final String unescaped = UNESCAPED_NAMES.get(name);
+        // names which aren't part of the schema aren't recorded, as they can come from anywhere
+        return unescaped != null ? unescaped : doUnescape(name);
+    }
+
+    private static String doUnescape(String name) {
         return name.replace("___", ".").replace("__", ":");
     }
 
-    private GraphQLObjectType createGraphQLType(ExtendedNodeType type, String typeName) {
-        final String escapedTypeName = escape(typeName);
+    private GraphQLObjectType createGraphQLType(NodeTypeModel type) {
+        final String escapedTypeName = escape(type.getName());
         logger.debug("Creating {}", escapedTypeName);
         unresolved.add(escapedTypeName);
+        dependencies.put(type.getName(), type.getDependencies());
 
-        final NodeDefinition[] children = type.getChildNodeDefinitions();
-        final PropertyDefinition[] properties = type.getPropertyDefinitions();
+        final List<NodeTypeModel.Child> children = type.getChildren();
+        final List<NodeTypeModel.Property> properties = type.getProperties();
 
         final List<GraphQLFieldDefinition> fields = new ArrayList<>(2);
-        if (children.length > 0) {
-            final Set<String> multipleChildTypes = new HashSet<>(children.length);
+        if (children.size() > 0) {
+            final Set<String> multipleChildTypes = new HashSet<>(children.size());
             final GraphQLFieldDefinition.Builder childrenField = newFieldDefinition().name("children");
             final GraphQLObjectType.Builder childrenType = newObject().name(escapedTypeName + "Children");
-            for (NodeDefinition child : children) {
+            for (NodeTypeModel.Child child : children) {
                 final String childName = child.getName();
 
-                if (!"*".equals(childName)) {
+                if (!child.isWildcard()) {
                     final String escapedChildName = escape(childName);
-                    final String childTypeName = getChildTypeName(child);
+                    final String childTypeName = child.getTypeName();
                     GraphQLOutputType gqlChildType = getExistingTypeOrRef(childTypeName);
                     childrenType.field(newFieldDefinition()
                             .name(escapedChildName)
@@ -228,7 +858,7 @@ public class GraphQLNodeRegistry {
                             .dataFetcher(childrenFetcher)
                             .build());
                 } else {
-                    final String childTypeName = getChildTypeName(child);
+                    final String childTypeName = child.getTypeName();
                     if (!multipleChildTypes.contains(childTypeName)) {
                         final String escapedChildTypeName = escape(childTypeName);
                         childrenType.field(
@@ -242,6 +872,24 @@ public class GraphQLNodeRegistry {
                                                 .build())
                                         .build()
                         );
+                        childrenType.field(
+                                newFieldDefinition()
+                                        .name(escapedChildTypeName + "Connection")
+                                        .type(getConnectionType(childTypeName))
+                                        .dataFetcher(new ChildrenConnectionDataFetcher(this, childTypeName))
+                                        .argument(newArgument()
+                                                .name("first")
+                                                .type(GraphQLInt)
+                                                .defaultValue(ChildrenConnectionDataFetcher.DEFAULT_PAGE_SIZE)
+                                                .description("Return at most this number of children, up to "
+                                                        + ChildrenConnectionDataFetcher.MAX_PAGE_SIZE)
+                                                .build())
+                                        .argument(newArgument()
+                                                .name("after")
+                                                .type(GraphQLString)
+                                                .build())
+                                        .build()
+                        );
                         multipleChildTypes.add(childTypeName);
                     }
                 }
@@ -250,21 +898,41 @@ public class GraphQLNodeRegistry {
             fields.add(childrenField.build());
         }
 
-        if (properties.length > 0) {
-            final Set<String> multiplePropertyTypes = new HashSet<>(properties.length);
+        if (properties.size() > 0) {
+            final Set<String> multiplePropertyTypes = new HashSet<>(properties.size());
             final GraphQLFieldDefinition.Builder propertiesField = newFieldDefinition().name("properties");
+            if (prefetchProperties) {
+                propertiesField.dataFetcher(propertiesPrefetcher);
+            }
             final GraphQLObjectType.Builder propertiesType = newObject().name(escapedTypeName + "Properties");
-            for (PropertyDefinition property : properties) {
+            for (NodeTypeModel.Property property : properties) {
                 final String propName = property.getName();
                 final int propertyType = property.getRequiredType();
                 final boolean multiple = property.isMultiple();
-                if (!"*".equals(propName)) {
+                if (!property.isWildcard()) {
                     final String escapedPropName = escape(propName);
-                    propertiesType.field(newFieldDefinition()
+                    final GraphQLFieldDefinition.Builder propertyField = newFieldDefinition()
                             .name(escapedPropName)
                             .dataFetcher(propertiesFetcher)
-                            .type(getGraphQLType(propertyType, multiple))
-                            .build());
+                            .type(getGraphQLType(propertyType, multiple));
+                    if (multiple) {
+                        propertyField
+                                .argument(newArgument().name("first").type(GraphQLInt)
+                                        .description("Only return this number of values").build())
+                                .argument(newArgument().name("offset").type(GraphQLInt)
+                                        .description("Skip this number of values").build());
+                    }
+                    propertiesType.field(propertyField.build());
+
+                    if (propertyType == PropertyType.REFERENCE || propertyType == PropertyType.WEAKREFERENCE) {
+                        final GraphQLOutputType nodeType = genericType;
+                        propertiesType.field(newFieldDefinition()
+                                .name(escapedPropName + "Node")
+                                .description("The node referenced by the " + propName + " property")
+                                .dataFetcher(new ReferenceDataFetcher(this, propName))
+                                .type(multiple ? new GraphQLList(nodeType) : nodeType)
+                                .build());
+                    }
                 } else {
                     final String propertyTypeName = PropertyType.nameFromValue(propertyType);
                     final String fieldName = propertyTypeName + "Properties";
@@ -292,8 +960,9 @@ public class GraphQLNodeRegistry {
         fields.add(pathField);
         fields.add(typeField);
         fields.add(idField);
+        fields.add(descendantsField);
 
-        final String description = type.getDescription(DEFAULT);
+        final String description = type.getDescription();
 
         final GraphQLObjectType objectType = new GraphQLObjectType(escapedTypeName, description, fields, Collections
                 .singletonList(genericType));
@@ -303,44 +972,75 @@ public class GraphQLNodeRegistry {
         return objectType;
     }
 
-    private String getChildTypeName(NodeDefinition child) {
-        String childTypeName = child.getDefaultPrimaryTypeName();
-        if (childTypeName == null) {
-            final String[] primaryTypeNames = child.getRequiredPrimaryTypeNames();
-            if (primaryTypeNames.length > 1) {
-                // todo: do something here
-                logger.warn("Multiple primary types (" + primaryTypeNames +
-                        ") for child " + child.getName() + " of type "
-                        + child.getDeclaringNodeType().getName());
-                childTypeName = Constants.NT_BASE;
-            } else {
-                childTypeName = primaryTypeNames[0];
-            }
-        }
-        return childTypeName;
-    }
-
     private GraphQLOutputType getExistingTypeOrRef(String unescapedChildTypeName) {
         final String escapedChildName = escape(unescapedChildTypeName);
         GraphQLOutputType gqlChildType = knownTypes.get(escapedChildName);
         if (gqlChildType == null) {
-            if (unresolved.contains(escapedChildName)) {
+            if (parallelGeneration || unresolved.contains(escapedChildName)) {
+                // types created in parallel never create their children themselves
                 gqlChildType = new GraphQLTypeReference(escapedChildName);
             } else {
-                try {
-                    final ExtendedNodeType childType = nodeTypeRegistry.getNodeType(unescapedChildTypeName);
-                    gqlChildType = createGraphQLType(childType, unescapedChildTypeName);
-                    knownTypes.put(escapedChildName, gqlChildType);
-                } catch (NoSuchNodeTypeException e) {
-                    throw new RuntimeException(e);
-                }
+                final GraphQLObjectType created = createGraphQLType(getModel(unescapedChildTypeName));
+                knownTypes.put(escapedChildName, created);
+                gqlChildType = created;
             }
         }
         return gqlChildType;
     }
 
+    private NodeTypeModel getModel(String name) {
+        NodeTypeModel model = models.get(name);
+        if (model == null) {
+            try {
+                model = NodeTypeModel.from(nodeTypeRegistry.getNodeType(name));
+            } catch (NoSuchNodeTypeException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return model;
+    }
+
+    private GraphQLObjectType getConnectionType(String unescapedChildTypeName) {
+        final String escapedChildTypeName = escape(unescapedChildTypeName);
+        GraphQLObjectType connectionType = connectionTypes.get(escapedChildTypeName);
+        if (connectionType == null) {
+            final GraphQLObjectType edgeType = newObject()
+                    .name(escapedChildTypeName + "Edge")
+                    .field(newFieldDefinition()
+                            .name("node")
+                            .type(getExistingTypeOrRef(unescapedChildTypeName))
+                            .build())
+                    .field(newFieldDefinition()
+                            .name("cursor")
+                            .type(GraphQLString)
+                            .build())
+                    .build();
+            connectionType = newObject()
+                    .name(escapedChildTypeName + "Connection")
+                    .field(newFieldDefinition()
+                            .name("edges")
+                            .type(new GraphQLList(edgeType))
+                            .build())
+                    .field(newFieldDefinition()
+                            .name("pageInfo")
+                            .type(pageInfoType)
+                            .build())
+                    .field(newFieldDefinition()
+                            .name("totalCount")
+                            .type(GraphQLInt)
+                            .build())
+                    .build();
+            final GraphQLObjectType existing = connectionTypes.putIfAbsent(escapedChildTypeName, connectionType);
+            if (existing != null) {
+                // created concurrently by another generation worker
+                connectionType = existing;
+            }
+        }
+        return connectionType;
+    }
+
     private GraphQLOutputType getGraphQLType(int jcrPropertyType, boolean multiValued) {
-        GraphQLScalarType type;
+        GraphQLOutputType type;
         switch (jcrPropertyType) {
             case PropertyType.BOOLEAN:
                 type = GraphQLBoolean;
@@ -354,6 +1054,8 @@ public class GraphQLNodeRegistry {
                 type = GraphQLFloat;
                 break;
             case PropertyType.BINARY:
+                type = binaryType;
+                break;
             case PropertyType.NAME:
             case PropertyType.PATH:
             case PropertyType.REFERENCE:
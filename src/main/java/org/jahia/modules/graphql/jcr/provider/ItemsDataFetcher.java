@@ -45,7 +45,6 @@ package org.jahia.modules.graphql.jcr.provider;
 
 import graphql.schema.DataFetchingEnvironment;
 import org.jahia.services.content.JCRNodeWrapper;
-import org.jahia.services.content.JCRSessionWrapper;
 
 import javax.jcr.RepositoryException;
 import java.util.Locale;
@@ -54,40 +53,46 @@ import java.util.Locale;
  * @author Christophe Laprun
  */
 abstract class ItemsDataFetcher<T> extends JCRDataFetcher<T> {
-    protected String ws;
-    protected Locale lang;
-
     ItemsDataFetcher(GraphQLNodeRegistry registry) {
         super(registry);
     }
 
     @Override
-    protected T perform(DataFetchingEnvironment environment, JCRSessionWrapper session) throws RepositoryException {
-        GQLItems parent = (GQLItems) environment.getSource();
-        final GQLNode itemsParent = parent.getParent();
-        ws = itemsParent.getWs();
-        lang = itemsParent.getLang();
+    protected JCRRequestContext getRequestContext(DataFetchingEnvironment environment) {
+        return getItemsParent(environment).getContext();
+    }
 
-        final JCRNodeWrapper node = session.getNodeByIdentifier(itemsParent.getId());
+    @Override
+    protected T perform(DataFetchingEnvironment environment, JCRRequestContext context, NodeLoader loader)
+            throws RepositoryException {
+        final GQLNode parent = getItemsParent(environment);
+        final JCRNodeWrapper node = parent.getNode() != null ? parent.getNode() : loader.load(parent.getId());
 
-        String name = environment.getArgument("name");
-        if (name == null) {
-            name = GraphQLNodeRegistry.unescape(environment.getFields().get(0).getName());
-        }
+        return perform(environment, context, loader, node, getItemName(environment));
+    }
 
-        return perform(environment, session, node, name);
+    /**
+     * @return the name of the item to retrieve, either specified as argument or derived from the field name
+     */
+    protected String getItemName(DataFetchingEnvironment environment) {
+        final String name = environment.getArgument("name");
+        return name != null ? name : GraphQLNodeRegistry.unescape(environment.getFields().get(0).getName());
     }
 
-    protected abstract T perform(DataFetchingEnvironment environment, JCRSessionWrapper session, JCRNodeWrapper node,
-                                 String childName) throws RepositoryException;
+    protected abstract T perform(DataFetchingEnvironment environment, JCRRequestContext context, NodeLoader loader,
+                                 JCRNodeWrapper node, String childName) throws RepositoryException;
 
     @Override
-    protected String getWs() {
-        return ws;
+    protected String getWs(DataFetchingEnvironment environment) {
+        return getItemsParent(environment).getWs();
     }
 
     @Override
-    protected Locale getLang() {
-        return lang;
+    protected Locale getLang(DataFetchingEnvironment environment) {
+        return getItemsParent(environment).getLang();
+    }
+
+    static GQLNode getItemsParent(DataFetchingEnvironment environment) {
+        return ((GQLItems) environment.getSource()).getParent();
     }
 }
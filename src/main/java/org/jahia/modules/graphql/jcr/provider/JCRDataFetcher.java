@@ -45,7 +45,6 @@ package org.jahia.modules.graphql.jcr.provider;
 
 import graphql.schema.DataFetcher;
 import graphql.schema.DataFetchingEnvironment;
-import org.jahia.services.content.JCRSessionWrapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -67,19 +66,20 @@ public abstract class JCRDataFetcher<T> implements DataFetcher {
     @Override
     public Object get(DataFetchingEnvironment environment) {
         if (isEnvironmentValid(environment)) {
-            JCRSessionWrapper session = null;
             try {
-                session = registry.getRepository().getCurrentUserSession(getWs(), getLang());
+                final JCRRequestContext context = getRequestContext(environment);
+                context.checkDeadline();
+                final FetcherMetrics metrics = registry.getMetrics();
+                final QueryTracing tracing = context.getTracing();
+                if ((metrics == null || !metrics.isEnabled()) && tracing == null) {
+                    return perform(environment, context, context.getLoader(getWs(environment), getLang(environment)));
+                }
 
-                return perform(environment, session);
+                return performInstrumented(environment, context, metrics, tracing);
 
             } catch (RepositoryException e) {
                 logger.error("Couldn't retrieve node", e);
                 return null;
-            } finally {
-                if (session != null) {
-                    session.logout();
-                }
             }
         }
 
@@ -87,14 +87,47 @@ public abstract class JCRDataFetcher<T> implements DataFetcher {
     }
 
 
+    private T performInstrumented(DataFetchingEnvironment environment, JCRRequestContext context,
+                                  FetcherMetrics metrics, QueryTracing tracing) throws RepositoryException {
+        final int sessions = context.getSessionsOpened();
+        final int nodes = context.getNodesRead();
+        final int properties = context.getPropertiesRead();
+        final long start = System.nanoTime();
+        try {
+            return perform(environment, context, context.getLoader(getWs(environment), getLang(environment)));
+        } finally {
+            final long duration = System.nanoTime() - start;
+            if (metrics != null && metrics.isEnabled()) {
+                final String field = environment.getParentType().getName() + '.'
+                        + environment.getFields().get(0).getName();
+                metrics.record(getClass().getSimpleName(), field, duration, context.getSessionsOpened() - sessions,
+                        context.getNodesRead() - nodes, context.getPropertiesRead() - properties);
+            }
+            if (tracing != null) {
+                tracing.resolved(environment, start, duration);
+            }
+        }
+    }
+
     protected boolean isEnvironmentValid(DataFetchingEnvironment environment) {
         return true;
     }
 
-    protected abstract T perform(DataFetchingEnvironment environment, JCRSessionWrapper session) throws RepositoryException;
+    /**
+     * Retrieves the context of the request the specified environment belongs to, so that its JCR sessions can be
+     * reused instead of opening new ones for each field.
+     */
+    protected abstract JCRRequestContext getRequestContext(DataFetchingEnvironment environment);
+
+    protected abstract T perform(DataFetchingEnvironment environment, JCRRequestContext context, NodeLoader loader)
+            throws RepositoryException;
 
-    protected abstract String getWs();
+    /**
+     * Fetchers are shared by all the fields of the schema and might be called concurrently: all per-call state, such
+     * as the workspace and locale, is derived from the specified environment instead of being kept in fields.
+     */
+    protected abstract String getWs(DataFetchingEnvironment environment);
 
-    protected abstract Locale getLang();
+    protected abstract Locale getLang(DataFetchingEnvironment environment);
 }
 
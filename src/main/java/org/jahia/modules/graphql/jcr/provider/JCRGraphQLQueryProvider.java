@@ -2,13 +2,58 @@ package org.jahia.modules.graphql.jcr.provider;
 
 import graphql.schema.GraphQLObjectType;
 import graphql.servlet.GraphQLQueryProvider;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceRegistration;
 
 /**
  * A GraphQL query provider to access DX underlying JCR repository.
+ * <p>
+ * The GraphQL servlet builds its schema from the query types of the providers when they are registered, so this
+ * provider registers itself as a service and registers again each time the registry publishes a new query type: the
+ * servlet then rebuilds its schema, used by introspection and by all the queries it executes. The new registration is
+ * added before the previous one is removed, so that the servlet never builds a schema without this provider.
  */
 public class JCRGraphQLQueryProvider implements GraphQLQueryProvider {
 
     private GraphQLNodeRegistry registry;
+    private ServiceRegistration registration;
+    private boolean started;
+    private final GraphQLNodeRegistry.SchemaListener schemaListener = new GraphQLNodeRegistry.SchemaListener() {
+        @Override
+        public void schemaChanged(GraphQLObjectType query) {
+            register();
+        }
+    };
+
+    public void start() {
+        synchronized (this) {
+            started = true;
+        }
+        register();
+        registry.addSchemaListener(schemaListener);
+    }
+
+    public synchronized void stop() {
+        started = false;
+        registry.removeSchemaListener(schemaListener);
+        if (registration != null) {
+            registration.unregister();
+            registration = null;
+        }
+    }
+
+    private synchronized void register() {
+        final Bundle bundle = FrameworkUtil.getBundle(JCRGraphQLQueryProvider.class);
+        if (!started || bundle == null || bundle.getBundleContext() == null) {
+            return;
+        }
+        final ServiceRegistration previous = registration;
+        registration = bundle.getBundleContext().registerService(GraphQLQueryProvider.class.getName(), this, null);
+        if (previous != null) {
+            previous.unregister();
+        }
+    }
 
     @Override
     public GraphQLObjectType getQuery() {
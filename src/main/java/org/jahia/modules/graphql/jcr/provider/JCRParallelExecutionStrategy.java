@@ -0,0 +1,141 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
+import graphql.execution.ExecutionContext;
+import graphql.execution.ExecutionStrategy;
+import graphql.language.Field;
+import graphql.schema.GraphQLObjectType;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * An execution strategy resolving the fields of the JCR query type concurrently on a bounded {@link ForkJoinPool}.
+ * JCR sessions, and the nodes read from them, aren't thread-safe: each of these fields is resolved along with all its
+ * sub-fields on a single thread, with its own {@link JCRRequestContext#branch() branch} of the request context whose
+ * sessions are released once the field is resolved. Sub-fields are resolved serially.
+ */
+public class JCRParallelExecutionStrategy extends ExecutionStrategy {
+    private final ForkJoinPool pool;
+
+    public JCRParallelExecutionStrategy(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public ExecutionResult execute(ExecutionContext executionContext, GraphQLObjectType parentType, Object source,
+                                   Map<String, List<Field>> fields) {
+        final Object context = executionContext.getRoot();
+        if (fields.size() < 2 || !(context instanceof JCRRequestContext) || ForkJoinTask.getPool() == pool
+                || !GraphQLNodeRegistry.QUERY_NAME.equals(parentType.getName())) {
+            return executeSerially(executionContext, parentType, source, fields);
+        }
+
+        return executeConcurrently(executionContext, parentType, source, fields, (JCRRequestContext) context);
+    }
+
+    private ExecutionResult executeSerially(ExecutionContext executionContext, GraphQLObjectType parentType,
+                                            Object source, Map<String, List<Field>> fields) {
+        final Map<String, Object> results = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Field>> entry : fields.entrySet()) {
+            final ExecutionResult result = resolveField(executionContext, parentType, source, entry.getValue());
+            results.put(entry.getKey(), result != null ? result.getData() : null);
+        }
+        return new ExecutionResultImpl(results, executionContext.getErrors());
+    }
+
+    private ExecutionResult executeConcurrently(ExecutionContext executionContext, GraphQLObjectType parentType,
+                                                Object source, Map<String, List<Field>> fields,
+                                                JCRRequestContext context) {
+        // the calling thread only waits: it isn't a worker of the pool, so it never runs a field itself, and workers
+        // never wait on other tasks, so that a thread never interleaves fields using different sessions
+        final Map<String, ForkJoinTask<ExecutionResult>> tasks = new LinkedHashMap<>(fields.size() * 2);
+        for (Map.Entry<String, List<Field>> entry : fields.entrySet()) {
+            tasks.put(entry.getKey(), pool.submit(new ResolveFieldTask(executionContext, parentType, source,
+                    entry.getValue(), context)));
+        }
+
+        final Map<String, Object> results = new LinkedHashMap<>();
+        for (Map.Entry<String, ForkJoinTask<ExecutionResult>> task : tasks.entrySet()) {
+            final ExecutionResult result = task.getValue().join();
+            results.put(task.getKey(), result != null ? result.getData() : null);
+        }
+        return new ExecutionResultImpl(results, executionContext.getErrors());
+    }
+
+    private class ResolveFieldTask extends RecursiveTask<ExecutionResult> {
+        private final ExecutionContext executionContext;
+        private final GraphQLObjectType parentType;
+        private final Object source;
+        private final List<Field> fields;
+        private final JCRRequestContext context;
+
+        ResolveFieldTask(ExecutionContext executionContext, GraphQLObjectType parentType, Object source,
+                         List<Field> fields, JCRRequestContext context) {
+            this.executionContext = executionContext;
+            this.parentType = parentType;
+            this.source = source;
+            this.fields = fields;
+            this.context = context;
+        }
+
+        @Override
+        protected ExecutionResult compute() {
+            // picked up by the root fetchers, nodes they return then carry it to the fetchers of their sub-fields
+            final JCRRequestContext branch = context.branch();
+            final JCRRequestContext previous = branch.bind();
+            try {
+                return resolveField(executionContext, parentType, source, fields);
+            } finally {
+                JCRRequestContext.restore(previous);
+                branch.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,412 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import graphql.ExceptionWhileDataFetching;
+import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
+import graphql.GraphQL;
+import graphql.GraphQLError;
+import graphql.execution.Execution;
+import graphql.execution.ExecutionStrategy;
+import graphql.execution.SimpleExecutionStrategy;
+import graphql.language.Document;
+import graphql.parser.Parser;
+import graphql.schema.GraphQLObjectType;
+import graphql.schema.GraphQLSchema;
+import graphql.validation.ValidationError;
+import graphql.validation.Validator;
+import org.jahia.api.Constants;
+import org.jahia.services.usermanager.JahiaUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+
+/**
+ * Executes GraphQL queries against the JCR schema within a {@link JCRRequestContext}, closing it once the execution
+ * is done. Fields are resolved serially unless a parallelism greater than 1 is configured, in which case the fields of
+ * the JCR query type are resolved concurrently on a pool bounded to that many threads, see
+ * {@link JCRParallelExecutionStrategy}.
+ * <p>
+ * When a {@link QueryResultCache} is configured, results of queries only reading live content are cached until the
+ * content they were computed from changes.
+ * <p>
+ * When a {@link QueryCostAnalyzer} is configured, queries exceeding the limits of the user are rejected before being
+ * executed, and the cost of the executed ones is returned in the {@code cost} extension of their result. Queries are
+ * traced in the {@code tracing} extension when enabled through the {@link FetcherMetrics}.
+ * <p>
+ * Queries can be executed asynchronously, on virtual threads when the JVM supports them and on a bounded pool
+ * otherwise, so that slow repository reads don't hold the threads of the callers. When a timeout is configured, fields
+ * resolved once it has passed fail without reading the repository, and the data resolved so far is returned along with
+ * an error.
+ * <p>
+ * Queries sent to the GraphQL servlet are executed by the servlet, within a context created by
+ * {@link #createRequestContext()}, which only applies the timeout.
+ */
+public class JCRQueryExecutor {
+    private static Logger logger = LoggerFactory.getLogger(JCRQueryExecutor.class);
+
+    private GraphQLNodeRegistry registry;
+    private QueryResultCache cache;
+    private QueryCostAnalyzer costAnalyzer;
+    private int parallelism = 1;
+    private long timeout;
+    private int asyncThreads = 16;
+    private ForkJoinPool pool;
+    private ExecutorService asyncExecutor;
+    private volatile Executable executable;
+
+    public void setRegistry(GraphQLNodeRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void setCache(QueryResultCache cache) {
+        this.cache = cache;
+    }
+
+    public void setCostAnalyzer(QueryCostAnalyzer costAnalyzer) {
+        this.costAnalyzer = costAnalyzer;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param timeout the maximum duration of the execution of a query in milliseconds, 0 for unlimited
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param asyncThreads the maximum number of queries executed asynchronously at the same time when virtual threads
+     *                     aren't available
+     */
+    public void setAsyncThreads(int asyncThreads) {
+        this.asyncThreads = asyncThreads;
+    }
+
+    public void start() {
+        if (parallelism > 1) {
+            pool = new ForkJoinPool(parallelism);
+            logger.info("Resolving fields with a parallelism of {}", parallelism);
+        }
+        asyncExecutor = createAsyncExecutor();
+    }
+
+    public void stop() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+            asyncExecutor = null;
+        }
+    }
+
+    private ExecutorService createAsyncExecutor() {
+        try {
+            // only available from Java 21, while the module is built for older versions
+            final ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            logger.info("Executing asynchronous queries on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            logger.info("Executing at most {} asynchronous queries at the same time", asyncThreads);
+            final AtomicInteger threads = new AtomicInteger();
+            return Executors.newFixedThreadPool(asyncThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "GraphQL query " + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    public ExecutionResult execute(String query) {
+        return execute(query, null, Collections.<String, Object>emptyMap());
+    }
+
+    public ExecutionResult execute(String query, String operationName, Map<String, Object> variables) {
+        return execute(query, operationName, variables, new JCRRequestContext(registry));
+    }
+
+    /**
+     * @return a context for a request executed by the GraphQL servlet, bounded by the configured timeout
+     */
+    JCRRequestContext createRequestContext() {
+        final JCRRequestContext context = new JCRRequestContext(registry);
+        if (timeout > 0) {
+            context.setTimeout(timeout);
+        }
+        return context;
+    }
+
+    /**
+     * Executes the specified query on behalf of the current user without blocking the calling thread. Cancelling the
+     * returned future stops resolving the fields of the query.
+     */
+    public CompletableFuture<ExecutionResult> executeAsync(final String query, final String operationName,
+                                                           final Map<String, Object> variables) {
+        final ExecutorService executor = asyncExecutor;
+        if (executor == null) {
+            throw new IllegalStateException("Query executor isn't started");
+        }
+
+        // the current user is bound to the calling thread
+        final JCRRequestContext context = new JCRRequestContext(registry, registry.getRepository().getCurrentUser());
+        final CompletableFuture<ExecutionResult> result = CompletableFuture.supplyAsync(
+                new Supplier<ExecutionResult>() {
+                    @Override
+                    public ExecutionResult get() {
+                        return execute(query, operationName, variables, context);
+                    }
+                }, executor);
+        result.whenComplete(new BiConsumer<ExecutionResult, Throwable>() {
+            @Override
+            public void accept(ExecutionResult executionResult, Throwable throwable) {
+                if (result.isCancelled()) {
+                    context.cancel();
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return why the specified query is rejected for the specified user, {@code null} if it isn't
+     */
+    String checkLimits(String query, Map<String, Object> variables, JahiaUser user) {
+        if (costAnalyzer == null) {
+            return null;
+        }
+        final QueryCostAnalyzer.QueryCost cost = costAnalyzer.analyze(getExecutable().schema, query, null, variables);
+        return cost != null ? costAnalyzer.check(cost, user) : null;
+    }
+
+    /**
+     * Parses and validates the specified query once, so that it can be executed many times with
+     * {@link #executeWithin(PreparedQuery, Map, JCRRequestContext)}.
+     *
+     * @throws IllegalArgumentException if the query can't be parsed or isn't valid
+     */
+    PreparedQuery prepare(String query) {
+        final Executable executable = getExecutable();
+        final Document document;
+        try {
+            document = new Parser().parseDocument(query);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid syntax", e);
+        }
+        final List<ValidationError> errors = new Validator().validateDocument(executable.schema, document);
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException(errors.get(0).getMessage());
+        }
+        return new PreparedQuery(executable, document);
+    }
+
+    /**
+     * Executes the specified query within the specified context, which is left open so that several queries can share
+     * its sessions. Results aren't cached, and queries aren't checked against the cost limits, see
+     * {@link #checkLimits(String, Map, JahiaUser)}.
+     */
+    ExecutionResult executeWithin(PreparedQuery query, Map<String, Object> variables, JCRRequestContext context) {
+        final Executable executable = query.executable;
+        return new Execution(executable.strategy, executable.strategy).execute(executable.schema, context,
+                query.document, null, variables);
+    }
+
+    private ExecutionResult execute(String query, String operationName, Map<String, Object> variables,
+                                    JCRRequestContext context) {
+        final Executable executable = getExecutable();
+        final GraphQL graphQL = executable.graphQL;
+        final GraphQLSchema graphQLSchema = executable.schema;
+        final Map<String, Object> extensions = new LinkedHashMap<>();
+        try {
+            if (timeout > 0) {
+                context.setTimeout(timeout);
+            }
+
+            if (costAnalyzer != null) {
+                final QueryCostAnalyzer.QueryCost cost = costAnalyzer.analyze(graphQLSchema, query, operationName,
+                        variables);
+                if (cost != null) {
+                    final Map<String, Object> costExtension = new LinkedHashMap<>();
+                    costExtension.put("cost", cost.getCost());
+                    costExtension.put("depth", cost.getDepth());
+                    extensions.put("cost", costExtension);
+
+                    final String rejection = costAnalyzer.check(cost, context.getUser());
+                    if (rejection != null) {
+                        logger.info("Rejected query: {}", rejection);
+                        return new JCRExecutionResult(null,
+                                Collections.singletonList(new QueryLimitError(rejection)), extensions);
+                    }
+                }
+            }
+
+            final FetcherMetrics metrics = registry.getMetrics();
+            if (metrics != null && metrics.isTracing()) {
+                context.startTracing();
+            }
+
+            final String key = cache != null && cache.isEnabled()
+                    ? QueryResultCache.key(query, operationName, variables, context.getUser()) : null;
+            if (key == null) {
+                return withExtensions(graphQL.execute(query, operationName, context, variables), extensions,
+                        context);
+            }
+
+            final Object cached = cache.get(key);
+            if (cached != null) {
+                return withExtensions(new ExecutionResultImpl(cached, Collections.<GraphQLError>emptyList()),
+                        extensions, context);
+            }
+
+            final long generation = cache.getGeneration();
+            context.trackNodes();
+            final ExecutionResult result = graphQL.execute(query, operationName, context, variables);
+            if (isCacheable(result, context)) {
+                final Set<String> dependencies = context.dependsOnAllChanges() ?
+                        Collections.singleton(QueryResultCache.ALL_CHANGES) : context.getDependencies();
+                cache.put(key, result.getData(), dependencies, generation);
+            }
+            return withExtensions(result, extensions, context);
+        } finally {
+            context.close();
+        }
+    }
+
+    private static ExecutionResult withExtensions(ExecutionResult result, Map<String, Object> extensions,
+                                                  JCRRequestContext context) {
+        if (context.getTracing() != null) {
+            extensions.put("tracing", context.getTracing().toExtension());
+        }
+        if (context.getInterruption() != null) {
+            return new JCRExecutionResult(result.getData(), withInterruption(result.getErrors(), context), extensions);
+        }
+        return extensions.isEmpty() ? result : new JCRExecutionResult(result.getData(), result.getErrors(), extensions);
+    }
+
+    /**
+     * Replaces the errors of the fields which weren't resolved because the query was interrupted by a single one.
+     */
+    private static List<GraphQLError> withInterruption(List<GraphQLError> errors, JCRRequestContext context) {
+        final List<GraphQLError> result = new ArrayList<>(errors.size() + 1);
+        for (GraphQLError error : errors) {
+            if (!(error instanceof ExceptionWhileDataFetching)
+                    || !(((ExceptionWhileDataFetching) error).getException() instanceof QueryTimeoutException)) {
+                result.add(error);
+            }
+        }
+        result.add(new QueryTimeoutError(context.getInterruption()));
+        return result;
+    }
+
+    private static boolean isCacheable(ExecutionResult result, JCRRequestContext context) {
+        // only live content changes are observed, see QueryCacheInvalidationListener
+        return result.getErrors().isEmpty() && result.getData() != null
+                && Collections.singleton(Constants.LIVE_WORKSPACE).equals(context.getWorkspaces());
+    }
+
+    private Executable getExecutable() {
+        // the registry publishes a new query type whenever node types change
+        final GraphQLObjectType query = registry.getQuery();
+        Executable result = executable;
+        if (result == null || result.query != query) {
+            synchronized (this) {
+                result = executable;
+                if (result == null || result.query != query) {
+                    executable = result = new Executable(query, getExecutionStrategy());
+                }
+            }
+        }
+        return result;
+    }
+
+    private ExecutionStrategy getExecutionStrategy() {
+        return pool != null ? new JCRParallelExecutionStrategy(pool) : new SimpleExecutionStrategy();
+    }
+
+    /**
+     * The schema built from a query type, along with the GraphQL instance executing queries against it.
+     */
+    private static class Executable {
+        private final GraphQLObjectType query;
+        private final ExecutionStrategy strategy;
+        private final GraphQLSchema schema;
+        private final GraphQL graphQL;
+
+        private Executable(GraphQLObjectType query, ExecutionStrategy strategy) {
+            this.query = query;
+            this.strategy = strategy;
+            schema = GraphQLSchema.newSchema().query(query).build();
+            graphQL = new GraphQL(schema, strategy);
+        }
+    }
+
+    /**
+     * A parsed and validated query, executed against the schema it was validated with, even if a new one was generated
+     * since.
+     */
+    static class PreparedQuery {
+        private final Executable executable;
+        private final Document document;
+
+        private PreparedQuery(Executable executable, Document document) {
+            this.executable = executable;
+            this.document = document;
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import graphql.schema.GraphQLObjectType;
+import org.jahia.services.content.JCRSessionFactory;
+import org.jahia.services.content.JCRSessionWrapper;
+import org.jahia.services.usermanager.JahiaUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Request-scoped state shared by the data fetchers for the duration of a GraphQL execution. JCR sessions are opened
+ * lazily, at most once per workspace and locale, and are only released when the context is closed. Each session comes
+ * with its own {@link NodeLoader} so that nodes are resolved at most once per request.
+ * <p>
+ * Callers executing queries themselves should pass a context as the execution context and close it once the execution
+ * is done. Queries executed by the GraphQL servlet get their context from {@link JCRRequestFilter}, which binds one to
+ * the thread handling the HTTP request for its whole duration.
+ * <p>
+ * JCR sessions aren't thread-safe: fields resolved concurrently, see {@link JCRParallelExecutionStrategy}, each use a
+ * {@link #branch()} of the context, with sessions of its own, while sharing the user, deadline, tracing and dependencies
+ * of the request.
+ */
+public class JCRRequestContext {
+    private static Logger logger = LoggerFactory.getLogger(JCRRequestContext.class);
+    private static final ThreadLocal<JCRRequestContext> current = new ThreadLocal<>();
+
+    private final GraphQLNodeRegistry registry;
+    private final JahiaUser user;
+    // the context of the request, this one unless it is a branch
+    private final JCRRequestContext root;
+    private final Map<String, NodeLoader> loaders = new HashMap<>(4);
+    private final AtomicInteger sessionsOpened;
+    private final AtomicInteger nodesRead;
+    private final AtomicInteger propertiesRead;
+    private final AtomicInteger nodesLoaded;
+    private final Set<String> workspaces;
+    private volatile QueryTracing tracing;
+    private Set<String> dependencies;
+    private volatile boolean dependsOnAllChanges;
+    private volatile long timeout;
+    private volatile long deadline;
+    private volatile String interruption;
+
+    public JCRRequestContext(GraphQLNodeRegistry registry) {
+        this(registry, registry.getRepository().getCurrentUser());
+    }
+
+    /**
+     * @param user the user the query is executed for, when it isn't executed on the thread which received it
+     */
+    JCRRequestContext(GraphQLNodeRegistry registry, JahiaUser user) {
+        this.registry = registry;
+        this.user = user;
+        this.root = this;
+        sessionsOpened = new AtomicInteger();
+        nodesRead = new AtomicInteger();
+        propertiesRead = new AtomicInteger();
+        nodesLoaded = new AtomicInteger();
+        workspaces = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>(2));
+        registry.requestStarted();
+    }
+
+    private JCRRequestContext(JCRRequestContext root) {
+        this.registry = root.registry;
+        this.user = root.user;
+        this.root = root;
+        sessionsOpened = root.sessionsOpened;
+        nodesRead = root.nodesRead;
+        propertiesRead = root.propertiesRead;
+        nodesLoaded = root.nodesLoaded;
+        workspaces = root.workspaces;
+    }
+
+    /**
+     * @return a context opening sessions of its own, to resolve fields concurrently with the ones resolved with this
+     * context, and to close once they are resolved
+     */
+    JCRRequestContext branch() {
+        return new JCRRequestContext(root);
+    }
+
+    /**
+     * @return whether this context is a branch of the specified one
+     */
+    boolean isBranchOf(JCRRequestContext context) {
+        return root == context && root != this;
+    }
+
+    /**
+     * @return the context bound to the current thread, {@code null} if there is none
+     */
+    static JCRRequestContext getCurrent() {
+        return current.get();
+    }
+
+    /**
+     * Binds this context to the current thread, so that fetchers called without an execution context use it.
+     *
+     * @return the context previously bound to the current thread, to restore with {@link #restore(JCRRequestContext)}
+     */
+    JCRRequestContext bind() {
+        final JCRRequestContext previous = current.get();
+        current.set(this);
+        return previous;
+    }
+
+    static void restore(JCRRequestContext previous) {
+        if (previous != null) {
+            current.set(previous);
+        } else {
+            current.remove();
+        }
+    }
+
+    NodeLoader getLoader(String ws, Locale lang) throws RepositoryException {
+        final String key = ws + '/' + lang;
+        synchronized (loaders) {
+            NodeLoader loader = loaders.get(key);
+            if (loader == null || !loader.getSession().isLive()) {
+                loader = new NodeLoader(openSession(ws, lang), ws, lang);
+                loaders.put(key, loader);
+                workspaces.add(ws);
+                sessionsOpened.incrementAndGet();
+                registry.sessionOpened();
+            }
+            return loader;
+        }
+    }
+
+    JahiaUser getUser() {
+        return user;
+    }
+
+    /**
+     * Starts recording the nodes materialized on behalf of this request so that {@link #getDependencies()} can tell
+     * which content the result was computed from.
+     */
+    void trackNodes() {
+        synchronized (root) {
+            if (root.dependencies == null) {
+                root.dependencies = new HashSet<>();
+            }
+        }
+    }
+
+    GraphQLObjectType getObjectType(String nodeTypeName) {
+        return registry.getObjectType(nodeTypeName);
+    }
+
+    void nodeCreated(GQLNode node) {
+        nodesRead.incrementAndGet();
+        synchronized (root) {
+            if (root.dependencies != null) {
+                // read while the session of the node is still open, branches are closed before the request
+                root.dependencies.add(node.getId());
+                root.dependencies.add(node.getPath());
+            }
+        }
+    }
+
+    /**
+     * Records that the result of this request might be affected by any content change, e.g. because it was computed
+     * from a query whose results cannot be tied to the nodes it returned.
+     */
+    void dependOnAllChanges() {
+        root.dependsOnAllChanges = true;
+    }
+
+    boolean dependsOnAllChanges() {
+        return root.dependsOnAllChanges;
+    }
+
+    /**
+     * @return the identifiers and paths of the tracked nodes
+     */
+    Set<String> getDependencies() {
+        synchronized (root) {
+            return root.dependencies != null ? new HashSet<>(root.dependencies) : Collections.<String>emptySet();
+        }
+    }
+
+    /**
+     * @return the workspaces sessions were opened on so far, by this context or its branches
+     */
+    Set<String> getWorkspaces() {
+        return new HashSet<>(workspaces);
+    }
+
+    private JCRSessionWrapper openSession(String ws, Locale lang) throws RepositoryException {
+        final JCRSessionFactory repository = registry.getRepository();
+        final JahiaUser current = repository.getCurrentUser();
+        if (current == user) {
+            return repository.getCurrentUserSession(ws, lang);
+        }
+
+        // fields might be resolved on another thread than the one which started the request, make sure the session
+        // is opened for the user who issued the request
+        repository.setCurrentUser(user);
+        try {
+            return repository.getCurrentUserSession(ws, lang);
+        } finally {
+            repository.setCurrentUser(current);
+        }
+    }
+
+    /**
+     * @return the number of JCR sessions opened so far on behalf of this request
+     */
+    public int getSessionsOpened() {
+        return sessionsOpened.get();
+    }
+
+    void propertiesRead(int count) {
+        propertiesRead.addAndGet(count);
+    }
+
+    /**
+     * Starts recording the timing of the fields resolved on behalf of this request.
+     */
+    void startTracing() {
+        root.tracing = new QueryTracing();
+    }
+
+    /**
+     * @return the tracing of this request, {@code null} if it isn't traced
+     */
+    QueryTracing getTracing() {
+        return root.tracing;
+    }
+
+    /**
+     * Makes fields resolved more than the specified number of milliseconds from now fail instead of reading the
+     * repository.
+     */
+    void setTimeout(long timeout) {
+        root.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        root.timeout = timeout;
+    }
+
+    /**
+     * Makes fields resolved from now on fail instead of reading the repository.
+     */
+    void cancel() {
+        root.interruption = "Query was cancelled";
+    }
+
+    /**
+     * Checked by fetchers before reading the repository.
+     *
+     * @throws QueryTimeoutException if the query exceeded its timeout or was cancelled
+     */
+    void checkDeadline() {
+        final JCRRequestContext request = root;
+        if (request.interruption == null && request.timeout > 0 && System.nanoTime() - request.deadline > 0) {
+            request.interruption = "Query exceeded its timeout of " + request.timeout + " ms";
+        }
+        if (request.interruption != null) {
+            throw new QueryTimeoutException(request.interruption);
+        }
+    }
+
+    /**
+     * @return why fields of this request were interrupted, {@code null} if none was
+     */
+    String getInterruption() {
+        return root.interruption;
+    }
+
+    /**
+     * @return the number of nodes returned by fetchers on behalf of this request, whether they were read by
+     * identifier, path, or while iterating children or query results
+     */
+    int getNodesRead() {
+        return nodesRead.get();
+    }
+
+    /**
+     * @return the number of properties read by fetchers on behalf of this request
+     */
+    int getPropertiesRead() {
+        return propertiesRead.get();
+    }
+
+    /**
+     * @return the number of nodes read from the repository on behalf of this request
+     */
+    public int getNodesLoaded() {
+        int loaded = nodesLoaded.get();
+        synchronized (loaders) {
+            for (NodeLoader loader : loaders.values()) {
+                loaded += loader.getLoaded();
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Releases the sessions opened by this context. Branches are to be closed before the context they are a branch
+     * of.
+     */
+    public void close() {
+        synchronized (loaders) {
+            if (root == this && logger.isDebugEnabled()) {
+                logger.debug("Closing request context, {} session(s) opened, {} node(s) loaded",
+                        sessionsOpened.get(), getNodesLoaded());
+            }
+            for (NodeLoader loader : loaders.values()) {
+                if (root != this) {
+                    nodesLoaded.addAndGet(loader.getLoaded());
+                }
+                final JCRSessionWrapper session = loader.getSession();
+                if (session.isLive()) {
+                    session.logout();
+                }
+            }
+            loaders.clear();
+        }
+        if (root == this) {
+            synchronized (this) {
+                dependencies = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import org.jahia.bin.filters.AbstractServletFilter;
+
+import javax.servlet.*;
+import java.io.IOException;
+
+/**
+ * Sits in front of the GraphQL servlet, which executes queries with its own execution strategy and without a context
+ * of ours: requests are passed to the servlet with a {@link JCRRequestContext} bound to the thread for the whole
+ * request, so that all their root fields share the same sessions, which are released once the request is handled.
+ * The context is created by the {@link JCRQueryExecutor}, which bounds it by the configured timeout.
+ * <p>
+ * Parsing, executing and serializing queries are left to the servlet. Result caching, cost limits, tracing and
+ * concurrent resolution are features of the executor, for queries executed through it.
+ */
+public class JCRRequestFilter extends AbstractServletFilter {
+    private GraphQLNodeRegistry registry;
+    private JCRQueryExecutor executor;
+
+    public void setRegistry(GraphQLNodeRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void setExecutor(JCRQueryExecutor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        final JCRRequestContext context = executor != null ? executor.createRequestContext()
+                : new JCRRequestContext(registry);
+        final JCRRequestContext previous = context.bind();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            JCRRequestContext.restore(previous);
+            context.close();
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Nodes returned together by a list field. A field resolved on one of them can prepare what the same field will need
+ * on the others, so that it's loaded in a single pass instead of once per node.
+ */
+class NodeBatch {
+    private final List<GQLNode> nodes;
+    private final Set<String> prepared = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private NodeBatch(List<GQLNode> nodes) {
+        this.nodes = nodes;
+    }
+
+    /**
+     * Links the specified nodes together, if there is more than one.
+     */
+    static void link(Collection<GQLNode> nodes) {
+        if (nodes.size() > 1) {
+            final NodeBatch batch = new NodeBatch(Collections.unmodifiableList(new ArrayList<>(nodes)));
+            for (GQLNode node : nodes) {
+                node.setBatch(batch);
+            }
+        }
+    }
+
+    List<GQLNode> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @param key identifies what needs to be prepared, typically a field name
+     * @return {@code true} if this is the first time the specified key is prepared for this batch
+     */
+    boolean prepare(String key) {
+        return prepared.add(key);
+    }
+}
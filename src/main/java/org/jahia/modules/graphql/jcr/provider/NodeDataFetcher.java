@@ -45,19 +45,15 @@ package org.jahia.modules.graphql.jcr.provider;
 
 import graphql.schema.DataFetchingEnvironment;
 import org.jahia.api.Constants;
-import org.jahia.services.content.JCRSessionWrapper;
+import org.jahia.services.content.JCRNodeWrapper;
 
-import javax.jcr.Node;
 import javax.jcr.RepositoryException;
-import java.util.Locale;
+import javax.jcr.Session;
 
 /**
  * @author Christophe Laprun
  */
-class NodeDataFetcher extends JCRDataFetcher<GQLNode> {
-    private String ws;
-    private Locale lang;
-
+class NodeDataFetcher extends RootDataFetcher<GQLNode> {
     NodeDataFetcher(GraphQLNodeRegistry registry) {
         super(registry);
     }
@@ -71,35 +67,72 @@ class NodeDataFetcher extends JCRDataFetcher<GQLNode> {
             throw new IllegalArgumentException("Should provide at least a node path or identifier");
         }
 
-        final String wsArg = environment.getArgument("ws");
-        this.ws = wsArg == null ? Constants.EDIT_WORKSPACE : ws;
-        String langArg = environment.getArgument("lang");
-        lang = langArg == null ? Locale.ENGLISH : Locale.forLanguageTag(langArg);
-
         return true;
     }
 
     @Override
-    protected GQLNode perform(DataFetchingEnvironment environment, JCRSessionWrapper session) throws RepositoryException {
-        Node node;
+    protected GQLNode perform(DataFetchingEnvironment environment, final JCRRequestContext context,
+                              final NodeLoader loader) throws RepositoryException {
         final String id = environment.getArgument("id");
-        if (id != null) {
-            node = session.getNodeByIdentifier(id);
-        } else {
-            final String path = environment.getArgument("path");
-            node = session.getNode(path);
+        final String path = environment.getArgument("path");
+        final NodeSnapshotCache snapshots = Constants.LIVE_WORKSPACE.equals(loader.getWorkspace()) ?
+                registry.getSnapshotCache() : null;
+        // captured before reading the node, so that it isn't cached if it changed since
+        final long generation = snapshots != null ? snapshots.getGeneration() : 0;
+        if (snapshots != null) {
+            final NodeSnapshot snapshot = id != null ? snapshots.getById(id, loader.getLocale())
+                    : snapshots.getByPath(path, loader.getLocale());
+            // snapshots are shared by all users, only use them for the ones allowed to read the node
+            if (snapshot != null && loader.getSession().hasPermission(snapshot.getPath(), Session.ACTION_READ)) {
+                return new GQLNode(snapshot, loader.getWorkspace(), getFallbackLangs(environment), context);
+            }
         }
 
-        return new GQLNode(node, ws, lang);
-    }
+        final NodeLookupCoalescer coalescer = registry.getLookupCoalescer();
+        JCRNodeWrapper node;
+        NodeSnapshot snapshot = null;
+        if (coalescer != null) {
+            final NodeSnapshot[] own = new NodeSnapshot[1];
+            final NodeLookupCoalescer.Lookup lookup = new NodeLookupCoalescer.Lookup() {
+                @Override
+                public NodeSnapshot lookup() throws RepositoryException {
+                    own[0] = new NodeSnapshot(read(loader, id, path), loader.getLocale());
+                    return own[0];
+                }
+            };
+            final NodeSnapshot shared = coalescer.lookup(id != null ? NodeLookupCoalescer.key(loader, context, "id", id)
+                    : NodeLookupCoalescer.key(loader, context, "path", path), lookup, context);
+            node = loader.peek(shared.getId());
+            if (node == null) {
+                // read by an identical lookup of another request for the same user, leave caching it to that lookup,
+                // which might have read it before this request's generation
+                return new GQLNode(shared.withoutValues(), loader.getWorkspace(), getFallbackLangs(environment),
+                        context);
+            }
+            snapshot = own[0];
+        } else {
+            node = read(loader, id, path);
+        }
 
-    @Override
-    protected String getWs() {
-        return ws;
+        final GQLNode result = new GQLNode(node, loader.getWorkspace(), loader.getLocale(),
+                getFallbackLangs(environment), context);
+        if (snapshots != null) {
+            result.setSnapshot(snapshots.put(snapshot != null ? snapshot : new NodeSnapshot(node, loader.getLocale()),
+                    generation));
+        }
+        return result;
     }
 
-    @Override
-    protected Locale getLang() {
-        return lang;
+    /**
+     * Reads the node with the specified identifier or, if it is {@code null}, path, and keeps it in the identity map of
+     * the specified loader.
+     */
+    private static JCRNodeWrapper read(NodeLoader loader, String id, String path) throws RepositoryException {
+        if (id != null) {
+            return loader.load(id);
+        }
+        final JCRNodeWrapper node = loader.getSession().getNode(path);
+        loader.prime(node);
+        return node;
     }
 }
@@ -0,0 +1,482 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import graphql.ExecutionResult;
+import graphql.GraphQLError;
+import org.jahia.api.Constants;
+import org.jahia.services.content.JCRNodeWrapper;
+import org.osgi.service.http.HttpService;
+import org.osgi.service.http.NamespaceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.RepositoryException;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+
+/**
+ * Exports a subtree as newline-delimited JSON, one line per node, written as soon as the node is resolved, so that
+ * whole sites can be exported without holding the result in memory. Nodes are walked depth-first from the node at the
+ * {@code path} parameter, and the GraphQL {@code selection} parameter is resolved on each of them through the
+ * {@code node} field of the schema, e.g. <code>{ ... on generic { id path } ... on jnt__page { properties {
+ * jcr__title } } }</code>. Other parameters are {@code ws} ({@code DEFAULT} or {@code LIVE}), {@code lang},
+ * {@code types} to only export, and traverse, nodes of these types, and {@code depth}.
+ * <p>
+ * Each line holds a {@code cursor}, along with the {@code data} and {@code errors} of the selection of its node, which
+ * is parsed and validated once per export. Cursors hold the position of the node among its siblings and the ones of
+ * its ancestors below the exported root, followed by its path, e.g. {@code 0/12:/sites/mySite/home/about}. An
+ * interrupted export is resumed by passing the cursor of the last line received as the {@code cursor} parameter: the
+ * walk skips to the positions of the cursor, and only looks the node up by path if its siblings changed in between.
+ * An export which stops before the end of the subtree, because it failed or reached the maximum number of nodes of a
+ * request, ends with a line holding the cursor to resume from along with an {@code error} instead of data.
+ * <p>
+ * The subtree is walked with a single session per request, while nodes are resolved in chunks, each with its own
+ * {@link JCRRequestContext}, so that the nodes loaded for a chunk are released before the next one.
+ */
+public class NodeExportServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+    private static Logger logger = LoggerFactory.getLogger(NodeExportServlet.class);
+
+    static final String DEFAULT_SELECTION = "{ ... on generic { id name path type } }";
+
+    private transient GraphQLNodeRegistry registry;
+    private transient JCRQueryExecutor executor;
+    private transient HttpService httpService;
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private String alias = "/graphql-export";
+    private int chunkSize = 500;
+    private int maxNodes = 100000;
+
+    public void setRegistry(GraphQLNodeRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void setExecutor(JCRQueryExecutor executor) {
+        this.executor = executor;
+    }
+
+    public void setHttpService(HttpService httpService) {
+        this.httpService = httpService;
+    }
+
+    public void setAlias(String alias) {
+        this.alias = alias;
+    }
+
+    /**
+     * @param chunkSize the number of nodes exported with the same sessions before they are released
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param maxNodes the maximum number of nodes exported by a request, after which the export has to be resumed
+     */
+    public void setMaxNodes(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    public void start() {
+        try {
+            httpService.registerServlet(alias, this, null, null);
+            logger.info("Registered GraphQL node export at {}", alias);
+        } catch (ServletException | NamespaceException e) {
+            logger.error("Couldn't register GraphQL node export at " + alias, e);
+        }
+    }
+
+    public void stop() {
+        try {
+            httpService.unregister(alias);
+        } catch (IllegalArgumentException e) {
+            // wasn't registered
+        }
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        final String path = req.getParameter("path");
+        if (path == null || !path.startsWith("/")) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "An absolute path is required");
+            return;
+        }
+        final String wsParam = req.getParameter("ws");
+        if (wsParam != null && !"DEFAULT".equals(wsParam) && !"LIVE".equals(wsParam)) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "ws must be DEFAULT or LIVE");
+            return;
+        }
+        final String cursor = req.getParameter("cursor");
+        final String cursorPath = cursor != null ? getCursorPath(cursor) : null;
+        if (cursor != null && (cursorPath == null || getCursorPositions(cursor) == null)) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor: " + cursor);
+            return;
+        }
+        if (cursorPath != null && !cursorPath.equals(path)
+                && !cursorPath.startsWith(path.endsWith("/") ? path : path + "/")) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "The cursor isn't below " + path);
+            return;
+        }
+        final int depth;
+        try {
+            depth = req.getParameter("depth") != null ? Integer.parseInt(req.getParameter("depth")) : Integer.MAX_VALUE;
+        } catch (NumberFormatException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid depth: " + req.getParameter("depth"));
+            return;
+        }
+
+        final boolean live = "LIVE".equals(wsParam);
+        final String lang = req.getParameter("lang") != null ? req.getParameter("lang")
+                : Locale.ENGLISH.toLanguageTag();
+        final String selection = req.getParameter("selection") != null ? req.getParameter("selection")
+                : DEFAULT_SELECTION;
+        final String[] typesParam = req.getParameterValues("types");
+        final Export export = new Export(path, live ? Constants.LIVE_WORKSPACE : Constants.EDIT_WORKSPACE, lang,
+                typesParam != null ? Arrays.asList(typesParam) : Collections.<String>emptyList(), depth,
+                "query($id: ID, $lang: String) { node(id: $id, ws: " + (live ? "LIVE" : "DEFAULT")
+                        + ", lang: $lang) " + selection + " }");
+
+        final JCRQueryExecutor.PreparedQuery prepared;
+        try {
+            prepared = executor.prepare(export.query);
+        } catch (IllegalArgumentException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid selection: " + e.getMessage());
+            return;
+        }
+        export.prepared = prepared;
+        export.last = cursor;
+
+        // walks the subtree for the whole request, while nodes are resolved with a context per chunk
+        final JCRRequestContext walker = new JCRRequestContext(registry);
+        PrintWriter writer = null;
+        try {
+            final String rejection = executor.checkLimits(export.query, export.variables(null), walker.getUser());
+            if (rejection != null) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, rejection);
+                return;
+            }
+
+            final JCRNodeWrapper root;
+            final Deque<NodeIterator> stack;
+            try {
+                root = walker.getLoader(export.ws, export.locale).getSession().getNode(path);
+                stack = export.position(root, cursor);
+            } catch (PathNotFoundException e) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "No node at " + e.getMessage());
+                return;
+            }
+
+            resp.setContentType("application/x-ndjson");
+            resp.setCharacterEncoding("UTF-8");
+            writer = resp.getWriter();
+            boolean more = true;
+            while (more) {
+                final JCRRequestContext context = new JCRRequestContext(registry);
+                try {
+                    if (export.exported == 0 && cursor == null) {
+                        export.write(writer, root.getPath(), export.resolve(context, root));
+                    }
+                    more = export.walk(context, stack, writer);
+                } finally {
+                    context.close();
+                }
+
+                writer.flush();
+                if (writer.checkError()) {
+                    // the client went away
+                    return;
+                }
+                if (more && export.exported >= maxNodes) {
+                    export.writeError(writer, "Exported the maximum of " + maxNodes
+                            + " nodes, resume from the cursor to export the next ones");
+                    writer.flush();
+                    break;
+                }
+            }
+        } catch (RepositoryException | RuntimeException e) {
+            logger.error("Couldn't export " + path, e);
+            if (!resp.isCommitted()) {
+                resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Couldn't export " + path);
+            } else if (writer != null) {
+                // the status was already sent, tell the client the export is incomplete
+                export.writeError(writer, "Couldn't export after the cursor: " + e.getMessage());
+                writer.flush();
+            }
+        } finally {
+            walker.close();
+        }
+    }
+
+    /**
+     * @return the path of the node at the specified cursor, {@code null} if it isn't a valid cursor
+     */
+    private static String getCursorPath(String cursor) {
+        if (cursor.startsWith("/")) {
+            // only a path, as written for the exported root
+            return cursor;
+        }
+        final int separator = cursor.indexOf(':');
+        return separator >= 0 && cursor.startsWith("/", separator + 1) ? cursor.substring(separator + 1) : null;
+    }
+
+    /**
+     * @return the positions held by the specified cursor, from the exported root down to its node, {@code null} if
+     * they aren't valid
+     */
+    private static long[] getCursorPositions(String cursor) {
+        if (cursor.startsWith("/")) {
+            return new long[0];
+        }
+        final String[] positions = cursor.substring(0, cursor.indexOf(':')).split("/");
+        final long[] result = new long[positions.length];
+        try {
+            for (int i = 0; i < positions.length; i++) {
+                result[i] = Long.parseLong(positions[i]);
+                if (result[i] < 0) {
+                    return null;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * The state of an export: what to export, and how.
+     */
+    private class Export {
+        private final String path;
+        private final String ws;
+        private final Locale locale;
+        private final List<String> types;
+        private final int depth;
+        private final String query;
+        private final String lang;
+        private JCRQueryExecutor.PreparedQuery prepared;
+        // the cursor of the last exported node, or the one the export was resumed from
+        private String last;
+        private int exported;
+
+        private Export(String path, String ws, String lang, List<String> types, int depth, String query) {
+            this.path = path;
+            this.ws = ws;
+            this.lang = lang;
+            this.locale = Locale.forLanguageTag(lang);
+            this.types = types;
+            this.depth = depth;
+            this.query = query;
+        }
+
+        private Map<String, Object> variables(String id) {
+            final Map<String, Object> variables = new HashMap<>(4);
+            variables.put("id", id);
+            variables.put("lang", lang);
+            return variables;
+        }
+
+        /**
+         * Positions the walk right after the node at the specified cursor, in depth-first order: on its first child.
+         * Each level skips to the position held by the cursor, and only looks the node up among its siblings if the
+         * node at that position isn't the one of the cursor anymore.
+         *
+         * @return the iterators over the siblings of the nodes from the exported root down to the cursor, followed
+         * by the iterator over the children of the cursor, if they are to be exported
+         * @throws PathNotFoundException if the node at the cursor doesn't exist anymore
+         */
+        private Deque<NodeIterator> position(JCRNodeWrapper root, String cursor) throws RepositoryException {
+            final Deque<NodeIterator> stack = new ArrayDeque<>();
+            JCRNodeWrapper current = root;
+            final String cursorPath = cursor != null ? getCursorPath(cursor) : null;
+            if (cursorPath != null && !cursorPath.equals(root.getPath())) {
+                final int start = "/".equals(root.getPath()) ? 1 : root.getPath().length() + 1;
+                final String[] segments = cursorPath.substring(start).split("/");
+                final long[] positions = getCursorPositions(cursor);
+                for (int i = 0; i < segments.length; i++) {
+                    final String childPath = ("/".equals(current.getPath()) ? "" : current.getPath()) + "/"
+                            + segments[i];
+                    NodeIterator children = current.getNodes();
+                    JCRNodeWrapper child = null;
+                    if (positions.length == segments.length) {
+                        try {
+                            children.skip(positions[i]);
+                            child = (JCRNodeWrapper) children.nextNode();
+                        } catch (NoSuchElementException e) {
+                            // fewer siblings than when the cursor was issued
+                        }
+                    }
+                    if (child == null || !child.getPath().equals(childPath)) {
+                        // the siblings changed since the cursor was issued, look the node up
+                        children = current.getNodes();
+                        child = null;
+                        while (children.hasNext()) {
+                            final JCRNodeWrapper sibling = (JCRNodeWrapper) children.nextNode();
+                            if (sibling.getPath().equals(childPath)) {
+                                child = sibling;
+                                break;
+                            }
+                        }
+                        if (child == null) {
+                            throw new PathNotFoundException(cursorPath);
+                        }
+                    }
+                    current = child;
+                    stack.push(children);
+                }
+            }
+            if (stack.size() < depth) {
+                stack.push(current.getNodes());
+            }
+            return stack;
+        }
+
+        /**
+         * Exports at most a chunk of nodes, depth-first, resolving them with the specified context.
+         *
+         * @return whether there are more nodes to export
+         */
+        private boolean walk(JCRRequestContext context, Deque<NodeIterator> stack, PrintWriter writer)
+                throws RepositoryException {
+            final NodeLoader loader = context.getLoader(ws, locale);
+            int chunk = 0;
+            while (!stack.isEmpty()) {
+                final NodeIterator children = stack.peek();
+                if (!children.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+                final JCRNodeWrapper child = (JCRNodeWrapper) children.nextNode();
+                if (!isOfType(child)) {
+                    continue;
+                }
+
+                // resolved from the identity map by the node field, the walking session has the same user, workspace
+                // and locale as the one of the chunk
+                loader.prime(child);
+                write(writer, getCursor(stack, child), resolve(context, child));
+                if (stack.size() < depth) {
+                    stack.push(child.getNodes());
+                }
+                if (++chunk == chunkSize || exported >= maxNodes) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return the cursor of the specified node, just returned by the iterator on top of the specified stack
+         */
+        private String getCursor(Deque<NodeIterator> stack, JCRNodeWrapper node) throws RepositoryException {
+            final StringBuilder cursor = new StringBuilder();
+            for (Iterator<NodeIterator> levels = stack.descendingIterator(); levels.hasNext(); ) {
+                cursor.append(levels.next().getPosition() - 1).append(levels.hasNext() ? '/' : ':');
+            }
+            return cursor.append(node.getPath()).toString();
+        }
+
+        private boolean isOfType(JCRNodeWrapper node) throws RepositoryException {
+            if (types.isEmpty()) {
+                return true;
+            }
+            for (String type : types) {
+                if (node.isNodeType(type)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private ExecutionResult resolve(JCRRequestContext context, JCRNodeWrapper node) throws RepositoryException {
+            return executor.executeWithin(prepared, variables(node.getIdentifier()), context);
+        }
+
+        private void write(PrintWriter writer, String cursor, ExecutionResult result) throws RepositoryException {
+            final Map<String, Object> line = new LinkedHashMap<>(4);
+            line.put("cursor", cursor);
+            final Object data = result.getData();
+            line.put("data", data instanceof Map ? ((Map<?, ?>) data).get("node") : null);
+            if (!result.getErrors().isEmpty()) {
+                final List<String> errors = new ArrayList<>(result.getErrors().size());
+                for (GraphQLError error : result.getErrors()) {
+                    errors.add(error.getMessage());
+                }
+                line.put("errors", errors);
+            }
+            try {
+                writer.write(mapper.writeValueAsString(line));
+            } catch (IOException e) {
+                throw new RepositoryException("Couldn't serialize " + cursor, e);
+            }
+            writer.write('\n');
+            last = cursor;
+            exported++;
+        }
+
+        /**
+         * Ends an incomplete export with a line holding the cursor to resume it from, along with why it stopped.
+         */
+        private void writeError(PrintWriter writer, String message) {
+            final Map<String, Object> line = new LinkedHashMap<>(4);
+            line.put("cursor", last);
+            line.put("error", message);
+            try {
+                writer.write(mapper.writeValueAsString(line));
+            } catch (IOException e) {
+                // only strings, not thrown
+                throw new IllegalStateException(e);
+            }
+            writer.write('\n');
+        }
+    }
+}
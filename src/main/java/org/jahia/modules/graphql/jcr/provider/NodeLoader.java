@@ -0,0 +1,243 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import org.jahia.services.content.JCRNodeWrapper;
+import org.jahia.services.content.JCRSessionWrapper;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.Query;
+import java.util.*;
+
+/**
+ * Per-request, per-session node loader. Node lookups by identifier are deduplicated through an identity map: nodes
+ * already materialized by a fetcher are registered with {@link #prime(JCRNodeWrapper)} so that fields resolved on them
+ * later on never hit the repository again, while identifiers collected for a whole execution level with
+ * {@link #enqueue(String)} are resolved together, with a single JCR-SQL2 query, the first time one of them is needed.
+ * Nodes the query doesn't return, e.g. because they aren't indexed yet, are then read one by one.
+ */
+class NodeLoader {
+    // bounds the size of the statements of batched reads
+    private static final int BATCH_SIZE = 100;
+
+
+    private final JCRSessionWrapper session;
+    private final String ws;
+    private final Locale lang;
+    private final Map<String, JCRNodeWrapper> nodes = new HashMap<>();
+    private final Set<String> missing = new HashSet<>();
+    private final Set<String> pending = new LinkedHashSet<>();
+    private final Map<String, JCRNodeWrapper> translations = new HashMap<>();
+    private int dispatches;
+    private int loaded;
+
+    NodeLoader(JCRSessionWrapper session, String ws, Locale lang) {
+        this.session = session;
+        this.ws = ws;
+        this.lang = lang;
+    }
+
+    JCRSessionWrapper getSession() {
+        return session;
+    }
+
+    String getWorkspace() {
+        return ws;
+    }
+
+    Locale getLocale() {
+        return lang;
+    }
+
+    synchronized void prime(JCRNodeWrapper node) throws RepositoryException {
+        nodes.put(node.getIdentifier(), node);
+    }
+
+    /**
+     * @return the node with the specified identifier if it was already loaded, {@code null} otherwise
+     */
+    synchronized JCRNodeWrapper peek(String id) {
+        return nodes.get(id);
+    }
+
+    synchronized void enqueue(String id) {
+        if (!nodes.containsKey(id) && !missing.contains(id)) {
+            pending.add(id);
+        }
+    }
+
+    synchronized JCRNodeWrapper load(String id) throws RepositoryException {
+        JCRNodeWrapper node = nodes.get(id);
+        if (node == null) {
+            enqueue(id);
+            dispatch();
+
+            node = nodes.get(id);
+            if (node == null) {
+                throw new ItemNotFoundException(id);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Loads all the specified nodes in one pass, silently skipping the ones that cannot be found.
+     *
+     * @return the loaded nodes, in the order of the specified identifiers
+     */
+    synchronized List<JCRNodeWrapper> loadAll(Collection<String> ids) throws RepositoryException {
+        for (String id : ids) {
+            enqueue(id);
+        }
+        dispatch();
+
+        final List<JCRNodeWrapper> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            final JCRNodeWrapper node = nodes.get(id);
+            if (node != null) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    private void dispatch() throws RepositoryException {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        dispatches++;
+        if (pending.size() > 1) {
+            final List<String> ids = new ArrayList<>(pending);
+            for (int from = 0; from < ids.size(); from += BATCH_SIZE) {
+                query(ids.subList(from, Math.min(from + BATCH_SIZE, ids.size())));
+            }
+        }
+        for (String id : pending) {
+            if (nodes.containsKey(id)) {
+                continue;
+            }
+            try {
+                nodes.put(id, session.getNodeByIdentifier(id));
+                loaded++;
+            } catch (ItemNotFoundException e) {
+                missing.add(id);
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * Reads the nodes with the specified identifiers with a single query, which only returns the ones the session can
+     * read.
+     */
+    private void query(List<String> ids) throws RepositoryException {
+        final StringBuilder statement = new StringBuilder("SELECT * FROM [nt:base] AS n WHERE ");
+        for (int i = 0; i < ids.size(); i++) {
+            statement.append(i == 0 ? "" : " OR ").append("n.[jcr:uuid] = $id").append(i);
+        }
+        final Query query = session.getWorkspace().getQueryManager().createQuery(statement.toString(), Query.JCR_SQL2);
+        final ValueFactory valueFactory = session.getValueFactory();
+        for (int i = 0; i < ids.size(); i++) {
+            query.bindValue("id" + i, valueFactory.createValue(ids.get(i)));
+        }
+
+        final NodeIterator result = query.execute().getNodes();
+        while (result.hasNext()) {
+            final JCRNodeWrapper node = (JCRNodeWrapper) result.nextNode();
+            if (nodes.put(node.getIdentifier(), node) == null) {
+                loaded++;
+            }
+        }
+    }
+
+    /**
+     * @return the translation node of the specified node for the specified locale, {@code null} if there is none;
+     * translations are only looked up once per node and locale
+     */
+    synchronized JCRNodeWrapper getTranslation(JCRNodeWrapper node, Locale locale) throws RepositoryException {
+        final String key = node.getIdentifier() + '/' + locale.toLanguageTag();
+        if (translations.containsKey(key)) {
+            return translations.get(key);
+        }
+        final JCRNodeWrapper translation = node.hasI18N(locale) ? node.getI18N(locale) : null;
+        translations.put(key, translation);
+        return translation;
+    }
+
+    /**
+     * @return the node holding the specified property: either the specified node, or its translation for the first of
+     * the specified locales which has it, {@code null} if none does
+     */
+    JCRNodeWrapper getPropertyHolder(JCRNodeWrapper node, String name, List<Locale> locales)
+            throws RepositoryException {
+        if (node.hasProperty(name)) {
+            return node;
+        }
+        for (Locale locale : locales) {
+            final JCRNodeWrapper translation = getTranslation(node, locale);
+            if (translation != null && translation.hasProperty(name)) {
+                return translation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of batches sent to the repository, each being one query plus a read per node it didn't return
+     */
+    synchronized int getDispatches() {
+        return dispatches;
+    }
+
+    /**
+     * @return the number of nodes actually read from the repository, as opposed to served from the identity map
+     */
+    synchronized int getLoaded() {
+        return loaded;
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import org.jahia.services.usermanager.JahiaUser;
+
+import javax.jcr.RepositoryException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces identical node lookups issued concurrently by different requests, e.g. when many clients ask for the same
+ * page right after it was published. The first lookup reads the node from the repository, while identical lookups
+ * started in the meantime wait for it to complete and share its result instead of reading the same node again.
+ * <p>
+ * Nodes are bound to the session they were read from, so they can't be handed over from one request to another: the
+ * result of a lookup is a {@link NodeSnapshot} of the node, which requests that didn't read the node themselves only
+ * use after checking that their own session can read it. Lookups are identified by workspace, locale, user and path or
+ * identifier, so that lookups only share results with ones checking the same permissions.
+ */
+class NodeLookupCoalescer {
+    // how often waiting lookups check the deadline of their request
+    private static final long WAIT_SLICE = 50;
+
+    private final ConcurrentMap<String, FutureTask<NodeSnapshot>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    interface Lookup {
+        NodeSnapshot lookup() throws RepositoryException;
+    }
+
+    static String key(NodeLoader loader, JCRRequestContext context, String kind, String pathOrId) {
+        final JahiaUser user = context.getUser();
+        return loader.getWorkspace() + '\u0000' + loader.getLocale() + '\u0000'
+                + (user == null ? "" : user.getLocalPath()) + '\u0000' + kind + '\u0000' + pathOrId;
+    }
+
+    /**
+     * Performs the specified lookup, unless an identical one is in flight, in which case its result is returned once
+     * it completes. Lookups which fail, e.g. because the node doesn't exist, aren't shared: waiting lookups then perform
+     * their own.
+     *
+     * @throws QueryTimeoutException if the request timed out or was cancelled while waiting for an identical lookup
+     */
+    NodeSnapshot lookup(String key, final Lookup lookup, JCRRequestContext context) throws RepositoryException {
+        lookups.increment();
+        final FutureTask<NodeSnapshot> flight = new FutureTask<>(new Callable<NodeSnapshot>() {
+            @Override
+            public NodeSnapshot call() throws Exception {
+                return lookup.lookup();
+            }
+        });
+        final FutureTask<NodeSnapshot> existing = inFlight.putIfAbsent(key, flight);
+        if (existing == null) {
+            try {
+                flight.run();
+            } finally {
+                inFlight.remove(key, flight);
+            }
+            return get(flight);
+        }
+
+        while (true) {
+            context.checkDeadline();
+            try {
+                final NodeSnapshot shared = existing.get(WAIT_SLICE, TimeUnit.MILLISECONDS);
+                coalesced.increment();
+                return shared;
+            } catch (TimeoutException e) {
+                // check the deadline again
+            } catch (ExecutionException e) {
+                return lookup.lookup();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RepositoryException("Interrupted while waiting for an identical node lookup", e);
+            }
+        }
+    }
+
+    private static NodeSnapshot get(FutureTask<NodeSnapshot> flight) throws RepositoryException {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            // the task already ran on this thread
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RepositoryException) {
+                throw (RepositoryException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RepositoryException(cause);
+        }
+    }
+
+    /**
+     * @return the number of lookups since this coalescer was created
+     */
+    long getLookups() {
+        return lookups.sum();
+    }
+
+    /**
+     * @return the number of lookups which were served the result of an identical one instead of reading the repository
+     */
+    long getCoalesced() {
+        return coalesced.sum();
+    }
+}
@@ -0,0 +1,265 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import org.jahia.services.content.JCRNodeWrapper;
+
+import javax.jcr.Property;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The data of a live node in a given locale, shared by the requests reading it through the {@link NodeSnapshotCache}.
+ * The name, type, path and identifier are captured when the snapshot is created, while property values are added as
+ * they are read. Values are stored encoded in byte arrays rather than as JCR values, which keeps snapshots compact and
+ * independent from the session they were read from.
+ * <p>
+ * Snapshots don't hold any permission: callers check that the user they serve can read the node before using one.
+ */
+class NodeSnapshot {
+    // marks properties which don't exist, so that they aren't looked up again
+    private static final byte[] MISSING = new byte[0];
+    // fixed cost of a snapshot and of each property value, on top of their strings and encoded values
+    private static final int OVERHEAD = 128;
+    private static final int VALUE_OVERHEAD = 64;
+    // wildcard properties can be looked up by any name, don't let them grow a snapshot forever
+    private static final int MAX_VALUES = 256;
+
+    private final String id;
+    private final String name;
+    private final String type;
+    private final String path;
+    private final Locale lang;
+    private final ConcurrentMap<String, byte[]> values = new ConcurrentHashMap<>();
+    private final AtomicInteger valuesSize = new AtomicInteger();
+    private volatile NodeSnapshotCache cache;
+
+    NodeSnapshot(JCRNodeWrapper node, Locale lang) throws RepositoryException {
+        this.id = node.getIdentifier();
+        this.name = node.getName();
+        this.type = node.getPrimaryNodeType().getName();
+        this.path = node.getPath();
+        this.lang = lang;
+    }
+
+    private NodeSnapshot(NodeSnapshot snapshot) {
+        this.id = snapshot.id;
+        this.name = snapshot.name;
+        this.type = snapshot.type;
+        this.path = snapshot.path;
+        this.lang = snapshot.lang;
+    }
+
+    /**
+     * @return a snapshot of the same node without the property values added to this one
+     */
+    NodeSnapshot withoutValues() {
+        return new NodeSnapshot(this);
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getType() {
+        return type;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    Locale getLang() {
+        return lang;
+    }
+
+    /**
+     * @return the estimated memory used by this snapshot, including the property values added so far
+     */
+    int getSize() {
+        return OVERHEAD + 2 * (id.length() + name.length() + type.length() + path.length()) + valuesSize.get();
+    }
+
+    void setCache(NodeSnapshotCache cache) {
+        this.cache = cache;
+    }
+
+    boolean hasValue(String propertyName) {
+        return values.containsKey(propertyName);
+    }
+
+    /**
+     * @return the value of the specified property, as the Java type matching the GraphQL type of its field: a list for
+     * multi-valued properties, {@code null} if the property doesn't exist or if its value wasn't added
+     */
+    Object getValue(String propertyName) {
+        final byte[] encoded = values.get(propertyName);
+        if (encoded == null || encoded == MISSING) {
+            return null;
+        }
+        try {
+            return decode(encoded);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't decode value of " + propertyName + " on " + path, e);
+        }
+    }
+
+    /**
+     * Adds the value of the specified property, read on behalf of a request.
+     *
+     * @param property the property, {@code null} if it doesn't exist; binary properties aren't stored
+     */
+    void addValue(String propertyName, Property property) throws RepositoryException {
+        if (values.containsKey(propertyName) || values.size() >= MAX_VALUES) {
+            return;
+        }
+        final byte[] encoded;
+        if (property == null) {
+            encoded = MISSING;
+        } else if (property.getType() == PropertyType.BINARY) {
+            return;
+        } else {
+            encoded = encode(property);
+        }
+        if (values.putIfAbsent(propertyName, encoded) == null) {
+            final int delta = VALUE_OVERHEAD + 2 * propertyName.length() + encoded.length;
+            valuesSize.addAndGet(delta);
+            final NodeSnapshotCache current = cache;
+            if (current != null) {
+                current.grown(this, delta);
+            }
+        }
+    }
+
+    private static byte[] encode(Property property) throws RepositoryException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            final int type = property.getType();
+            out.writeByte(type);
+            if (property.isMultiple()) {
+                final Value[] values = property.getValues();
+                out.writeBoolean(true);
+                out.writeInt(values.length);
+                for (Value value : values) {
+                    write(out, value, type);
+                }
+            } else {
+                out.writeBoolean(false);
+                write(out, property.getValue(), type);
+            }
+        } catch (IOException e) {
+            // not thrown by in-memory streams
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void write(DataOutputStream out, Value value, int type) throws IOException, RepositoryException {
+        switch (type) {
+            case PropertyType.BOOLEAN:
+                out.writeBoolean(value.getBoolean());
+                break;
+            case PropertyType.DATE:
+                out.writeLong(value.getDate().getTimeInMillis());
+                break;
+            case PropertyType.DECIMAL:
+            case PropertyType.LONG:
+                out.writeLong(value.getLong());
+                break;
+            case PropertyType.DOUBLE:
+                out.writeDouble(value.getDouble());
+                break;
+            default:
+                final byte[] string = value.getString().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(string.length);
+                out.write(string);
+        }
+    }
+
+    private static Object decode(byte[] encoded) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            final int type = in.readByte();
+            if (!in.readBoolean()) {
+                return read(in, type);
+            }
+            final int count = in.readInt();
+            final List<Object> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                result.add(read(in, type));
+            }
+            return Collections.unmodifiableList(result);
+        }
+    }
+
+    private static Object read(DataInputStream in, int type) throws IOException {
+        switch (type) {
+            case PropertyType.BOOLEAN:
+                return in.readBoolean();
+            case PropertyType.DATE:
+            case PropertyType.DECIMAL:
+            case PropertyType.LONG:
+                return in.readLong();
+            case PropertyType.DOUBLE:
+                return in.readDouble();
+            default:
+                final byte[] string = new byte[in.readInt()];
+                in.readFully(string);
+                return new String(string, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded cache of {@link NodeSnapshot}s of live nodes, shared by all requests, so that nodes looked up
+ * repeatedly, such as the ones of popular pages, are served without reading the repository again. Snapshots are keyed
+ * by node identifier and locale, can be looked up by path as well, and are evicted in least recently used order once
+ * the configured size is exceeded.
+ * <p>
+ * Live content only changes when it is published: {@link QueryCacheInvalidationListener} evicts the snapshots of the
+ * changed nodes, along with the ones of the descendants of removed and moved nodes, whose paths changed. Snapshots of
+ * nodes read while snapshots were invalidated might hold content which changed since, they are not cached. Snapshots
+ * don't carry permissions, callers check that the user they serve can read a node before using its snapshot.
+ */
+public class NodeSnapshotCache {
+    private long maxSize;
+    private long size;
+    // incremented by each invalidation
+    private long generation;
+    private final LinkedHashMap<String, NodeSnapshot> snapshots = new LinkedHashMap<>(16, 0.75f, true);
+    // sorted, so that the snapshots of a node and of its descendants are adjacent
+    private final NavigableMap<String, String> keysByPath = new TreeMap<>();
+    private final Map<String, Set<String>> keysById = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param maxSize the maximum total size of the cached snapshots, in bytes, 0 disabling the cache
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    private static String key(String idOrPath, Locale lang) {
+        return idOrPath + '\u0000' + lang;
+    }
+
+    NodeSnapshot getById(String id, Locale lang) {
+        return get(key(id, lang));
+    }
+
+    NodeSnapshot getByPath(String path, Locale lang) {
+        final String key;
+        synchronized (this) {
+            key = keysByPath.get(key(path, lang));
+        }
+        if (key == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        return get(key);
+    }
+
+    private NodeSnapshot get(String key) {
+        final NodeSnapshot snapshot;
+        synchronized (this) {
+            snapshot = snapshots.get(key);
+        }
+        (snapshot != null ? hits : misses).incrementAndGet();
+        return snapshot;
+    }
+
+    /**
+     * @return the current generation of the cache, to pass to {@link #put(NodeSnapshot, long)} along with the snapshot
+     * of a node read from now on
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches the specified snapshot, unless snapshots were invalidated since the specified generation: the node might
+     * have changed after it was read.
+     *
+     * @return the cached snapshot of the same node if there is one, so that values are only added to one of them,
+     * otherwise the specified snapshot
+     */
+    NodeSnapshot put(NodeSnapshot snapshot, long generation) {
+        final String key = key(snapshot.getId(), snapshot.getLang());
+        synchronized (this) {
+            final NodeSnapshot existing = snapshots.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            if (generation != this.generation || snapshot.getSize() > maxSize) {
+                return snapshot;
+            }
+
+            snapshots.put(key, snapshot);
+            keysByPath.put(key(snapshot.getPath(), snapshot.getLang()), key);
+            Set<String> keys = keysById.get(snapshot.getId());
+            if (keys == null) {
+                keys = new HashSet<>(2);
+                keysById.put(snapshot.getId(), keys);
+            }
+            keys.add(key);
+            size += snapshot.getSize();
+            snapshot.setCache(this);
+            evict();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Accounts for property values added to a snapshot, if it is still cached.
+     */
+    synchronized void grown(NodeSnapshot snapshot, int delta) {
+        if (snapshots.get(key(snapshot.getId(), snapshot.getLang())) == snapshot) {
+            size += delta;
+            evict();
+        }
+    }
+
+    private void evict() {
+        while (size > maxSize && !snapshots.isEmpty()) {
+            remove(snapshots.keySet().iterator().next());
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Evicts the snapshots of the nodes with the specified identifiers or paths, as well as the ones of the nodes
+     * below the specified removed paths.
+     */
+    synchronized void invalidate(Collection<String> changed, Collection<String> removedPaths) {
+        generation++;
+        final Set<String> keys = new HashSet<>();
+        for (String idOrPath : changed) {
+            final Set<String> byId = keysById.get(idOrPath);
+            if (byId != null) {
+                keys.addAll(byId);
+            }
+            keys.addAll(byPath(idOrPath).values());
+        }
+        for (String removedPath : removedPaths) {
+            keys.addAll(byPath(removedPath).values());
+            // '0' follows '/', the range holds all the paths below the removed one
+            final String prefix = removedPath.endsWith("/") ? removedPath : removedPath + '/';
+            keys.addAll(keysByPath.subMap(prefix, prefix.substring(0, prefix.length() - 1) + '0').values());
+        }
+
+        for (String key : keys) {
+            remove(key);
+        }
+        invalidations.addAndGet(keys.size());
+    }
+
+    /**
+     * @return the keys of the snapshots of the node with the specified path, in all locales
+     */
+    private SortedMap<String, String> byPath(String path) {
+        return keysByPath.subMap(path + '\u0000', path + '\u0001');
+    }
+
+    public synchronized void clear() {
+        generation++;
+        for (NodeSnapshot snapshot : snapshots.values()) {
+            snapshot.setCache(null);
+        }
+        snapshots.clear();
+        keysByPath.clear();
+        keysById.clear();
+        size = 0;
+    }
+
+    private void remove(String key) {
+        final NodeSnapshot snapshot = snapshots.remove(key);
+        if (snapshot != null) {
+            snapshot.setCache(null);
+            size -= snapshot.getSize();
+            keysByPath.remove(key(snapshot.getPath(), snapshot.getLang()));
+            final Set<String> keys = keysById.get(snapshot.getId());
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                keysById.remove(snapshot.getId());
+            }
+        }
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return snapshots.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import org.jahia.api.Constants;
+import org.jahia.services.content.nodetypes.ExtendedNodeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.nodetype.NodeDefinition;
+import javax.jcr.nodetype.PropertyDefinition;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The subset of a JCR node type definition GraphQL types are generated from. Extracting it once decouples type
+ * generation from the node type registry, so that it can be persisted and generated types can be rebuilt without
+ * walking node type definitions again.
+ */
+class NodeTypeModel {
+    private static Logger logger = LoggerFactory.getLogger(NodeTypeModel.class);
+
+    static final String WILDCARD = "*";
+    private static final Locale DEFAULT = Locale.getDefault();
+
+    private final String name;
+    private final String description;
+    private final List<Child> children;
+    private final List<Property> properties;
+    private final String signature;
+
+    private NodeTypeModel(String name, String description, List<Child> children, List<Property> properties) {
+        this.name = name;
+        this.description = description;
+        this.children = children;
+        this.properties = properties;
+        this.signature = computeSignature();
+    }
+
+    static NodeTypeModel from(ExtendedNodeType type) {
+        final NodeDefinition[] childDefinitions = type.getChildNodeDefinitions();
+        final List<Child> children = new ArrayList<>(childDefinitions.length);
+        for (NodeDefinition child : childDefinitions) {
+            if (child.getDefaultPrimaryTypeName() == null && child.getRequiredPrimaryTypeNames().length > 1) {
+                // todo: do something here
+                logger.warn("Multiple primary types (" + Arrays.toString(child.getRequiredPrimaryTypeNames()) +
+                        ") for child " + child.getName() + " of type "
+                        + child.getDeclaringNodeType().getName());
+            }
+            children.add(new Child(child.getName(), getChildTypeName(child)));
+        }
+
+        final PropertyDefinition[] propertyDefinitions = type.getPropertyDefinitions();
+        final List<Property> properties = new ArrayList<>(propertyDefinitions.length);
+        for (PropertyDefinition property : propertyDefinitions) {
+            properties.add(new Property(property.getName(), property.getRequiredType(), property.isMultiple()));
+        }
+
+        return new NodeTypeModel(type.getName(), type.getDescription(DEFAULT), children, properties);
+    }
+
+    /**
+     * @return the definitions the model of the specified node type is read from, serialized in a string, except for
+     * the description, which comes from the resource bundles of the module defining the node type
+     */
+    static String serializeDefinition(ExtendedNodeType type) {
+        final StringBuilder definition = new StringBuilder(type.getName());
+        for (NodeDefinition child : type.getChildNodeDefinitions()) {
+            definition.append("|c:").append(child.getName()).append('=').append(getChildTypeName(child));
+        }
+        for (PropertyDefinition property : type.getPropertyDefinitions()) {
+            definition.append("|p:").append(property.getName()).append('=').append(property.getRequiredType())
+                    .append(property.isMultiple() ? "[]" : "");
+        }
+        return definition.toString();
+    }
+
+    private static String getChildTypeName(NodeDefinition child) {
+        final String childTypeName = child.getDefaultPrimaryTypeName();
+        if (childTypeName == null) {
+            final String[] primaryTypeNames = child.getRequiredPrimaryTypeNames();
+            return primaryTypeNames.length > 1 ? Constants.NT_BASE : primaryTypeNames[0];
+        }
+        return childTypeName;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getDescription() {
+        return description;
+    }
+
+    List<Child> getChildren() {
+        return children;
+    }
+
+    List<Property> getProperties() {
+        return properties;
+    }
+
+    /**
+     * @return a digest of everything the GraphQL type generated from this model depends on, so that changes to the
+     * node type definition can be detected
+     */
+    String getSignature() {
+        return signature;
+    }
+
+    /**
+     * @return the names of the node types referenced by the children of this node type
+     */
+    Set<String> getDependencies() {
+        final Set<String> dependencies = new LinkedHashSet<>(children.size());
+        for (Child child : children) {
+            dependencies.add(child.getTypeName());
+        }
+        return dependencies;
+    }
+
+    private String computeSignature() {
+        final StringBuilder signature = new StringBuilder(name);
+        signature.append('|').append(description);
+        for (Child child : children) {
+            signature.append("|c:").append(child.getName()).append('=').append(child.getTypeName());
+        }
+        for (Property property : properties) {
+            signature.append("|p:").append(property.getName()).append('=').append(property.getRequiredType())
+                    .append(property.isMultiple() ? "[]" : "");
+        }
+        return GraphQLNodeRegistry.digest(signature.toString());
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(name);
+        out.writeBoolean(description != null);
+        if (description != null) {
+            out.writeUTF(description);
+        }
+        out.writeShort(children.size());
+        for (Child child : children) {
+            out.writeUTF(child.getName());
+            out.writeUTF(child.getTypeName());
+        }
+        out.writeShort(properties.size());
+        for (Property property : properties) {
+            out.writeUTF(property.getName());
+            out.writeByte(property.getRequiredType());
+            out.writeBoolean(property.isMultiple());
+        }
+    }
+
+    static NodeTypeModel read(DataInput in) throws IOException {
+        final String name = in.readUTF();
+        final String description = in.readBoolean() ? in.readUTF() : null;
+        final int childCount = in.readShort();
+        final List<Child> children = new ArrayList<>(childCount);
+        for (int i = 0; i < childCount; i++) {
+            children.add(new Child(in.readUTF(), in.readUTF()));
+        }
+        final int propertyCount = in.readShort();
+        final List<Property> properties = new ArrayList<>(propertyCount);
+        for (int i = 0; i < propertyCount; i++) {
+            properties.add(new Property(in.readUTF(), in.readByte(), in.readBoolean()));
+        }
+        return new NodeTypeModel(name, description, children, properties);
+    }
+
+    static class Child {
+        private final String name;
+        private final String typeName;
+
+        Child(String name, String typeName) {
+            this.name = name;
+            this.typeName = typeName;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        String getTypeName() {
+            return typeName;
+        }
+
+        boolean isWildcard() {
+            return WILDCARD.equals(name);
+        }
+    }
+
+    static class Property {
+        private final String name;
+        private final int requiredType;
+        private final boolean multiple;
+
+        Property(String name, int requiredType, boolean multiple) {
+            this.name = name;
+            this.requiredType = requiredType;
+            this.multiple = multiple;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        int getRequiredType() {
+            return requiredType;
+        }
+
+        boolean isMultiple() {
+            return multiple;
+        }
+
+        boolean isWildcard() {
+            return WILDCARD.equals(name);
+        }
+    }
+}
@@ -45,12 +45,14 @@ package org.jahia.modules.graphql.jcr.provider;
 
 import graphql.schema.DataFetchingEnvironment;
 import org.jahia.services.content.JCRNodeWrapper;
-import org.jahia.services.content.JCRSessionWrapper;
 
-import javax.jcr.Node;
 import javax.jcr.Property;
+import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
-import java.util.Locale;
+import javax.jcr.Value;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * @author Christophe Laprun
@@ -61,21 +63,124 @@ public class PropertiesDataFetcher extends ItemsDataFetcher<Object> {
     }
 
     @Override
-    protected Object perform(DataFetchingEnvironment environment, JCRSessionWrapper session, JCRNodeWrapper node, String childName) throws RepositoryException {
+    protected Object perform(DataFetchingEnvironment environment, JCRRequestContext context, NodeLoader loader)
+            throws RepositoryException {
+        // values of cached snapshots don't need the JCR node, don't load it
+        final String childName = getItemName(environment);
+        final GQLItems items = (GQLItems) environment.getSource();
+        if (items instanceof GQLProperties && ((GQLProperties) items).isCached(childName)) {
+            return slice(environment, ((GQLProperties) items).getCachedValue(childName));
+        }
+        final NodeSnapshot snapshot = getItemsParent(environment).getSnapshot();
+        if (snapshot != null && snapshot.hasValue(childName)) {
+            return slice(environment, snapshot.getValue(childName));
+        }
+        return super.perform(environment, context, loader);
+    }
+
+    @Override
+    protected Object perform(DataFetchingEnvironment environment, JCRRequestContext context, NodeLoader loader,
+                             JCRNodeWrapper node, String childName) throws RepositoryException {
+        final JCRNodeWrapper holder;
         final Property property;
-        if (node.hasProperty(childName)) {
-            property = node.getProperty(childName);
+        final GQLNode parent = getItemsParent(environment);
+        final GQLItems items = (GQLItems) environment.getSource();
+        if (items instanceof GQLProperties && ((GQLProperties) items).isPrefetched(childName)) {
+            holder = ((GQLProperties) items).getHolder(childName);
+            property = ((GQLProperties) items).getProperty(childName);
+            if (property == null) {
+                return null;
+            }
         } else {
-            // check for translation
-            final Locale locale = session.getLocale();
-            final Node i18N = node.getI18N(locale);
-            property = i18N.getProperty(childName);
+            // check for translations if the node itself doesn't have the property
+            holder = loader.getPropertyHolder(node, childName, parent.getLocales());
+            property = holder != null ? holder.getProperty(childName) : null;
+            if (parent.getSnapshot() != null) {
+                parent.getSnapshot().addValue(childName, property);
+            }
+            if (property == null) {
+                return null;
+            }
         }
 
+        context.propertiesRead(1);
         if (!property.isMultiple()) {
-            return property.getString();
+            if (property.getType() == PropertyType.BINARY) {
+                // streamed on demand rather than read as a string
+                return new GQLBinary(parent, holder, property);
+            }
+            return getValue(property);
         } else {
-            throw new RuntimeException("TODO: Multiple property, not sure how to deal with it! ¯\\_(ツ)_/¯");
+            final Value[] values = property.getValues();
+            final int type = property.getType();
+            if (type == PropertyType.BINARY) {
+                // binaries are only read when their fields are resolved
+                final List<GQLBinary> binaries = new ArrayList<>(values.length);
+                for (int i = 0; i < values.length; i++) {
+                    binaries.add(new GQLBinary(parent, holder, property, i));
+                }
+                return slice(environment, binaries);
+            }
+            final List<Value> sliced = slice(environment, Arrays.asList(values));
+            final List<Object> result = new ArrayList<>(sliced.size());
+            for (Value value : sliced) {
+                result.add(getValue(value, type));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Applies the first and offset arguments to the specified value, if it is the list of values of a multi-valued
+     * property.
+     */
+    private static Object slice(DataFetchingEnvironment environment, Object value) {
+        return value instanceof List ? slice(environment, (List<?>) value) : value;
+    }
+
+    /**
+     * Applies the first and offset arguments to the specified values of a multi-valued property.
+     */
+    private static <T> List<T> slice(DataFetchingEnvironment environment, List<T> values) {
+        final Integer first = environment.getArgument("first");
+        final Integer offset = environment.getArgument("offset");
+        final int from = offset != null ? Math.min(Math.max(offset, 0), values.size()) : 0;
+        final int to = first != null ? from + Math.min(Math.max(first, 0), values.size() - from) : values.size();
+        return values.subList(from, to);
+    }
+
+    /**
+     * Reads the value of a single-valued property as the Java type matching the GraphQL type of its field.
+     */
+    private static Object getValue(Property property) throws RepositoryException {
+        switch (property.getType()) {
+            case PropertyType.BOOLEAN:
+                return property.getBoolean();
+            case PropertyType.DATE:
+                return property.getDate().getTimeInMillis();
+            case PropertyType.DECIMAL:
+            case PropertyType.LONG:
+                return property.getLong();
+            case PropertyType.DOUBLE:
+                return property.getDouble();
+            default:
+                return property.getString();
+        }
+    }
+
+    private static Object getValue(Value value, int type) throws RepositoryException {
+        switch (type) {
+            case PropertyType.BOOLEAN:
+                return value.getBoolean();
+            case PropertyType.DATE:
+                return value.getDate().getTimeInMillis();
+            case PropertyType.DECIMAL:
+            case PropertyType.LONG:
+                return value.getLong();
+            case PropertyType.DOUBLE:
+                return value.getDouble();
+            default:
+                return value.getString();
         }
     }
 }
@@ -0,0 +1,212 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import graphql.language.Argument;
+import graphql.language.Field;
+import graphql.language.InlineFragment;
+import graphql.language.Selection;
+import graphql.language.SelectionSet;
+import graphql.language.StringValue;
+import graphql.language.Value;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLObjectType;
+import org.jahia.services.content.JCRNodeWrapper;
+
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.RepositoryException;
+import java.util.*;
+
+/**
+ * Resolves the {@code properties} field of a node by reading all the selected properties at once, then reading the
+ * ones which aren't found on the node itself from its translations, following the fallback locales of the node.
+ * Property fields are then served from the returned {@link GQLProperties} by the {@link PropertiesDataFetcher}, which
+ * only goes to the repository for properties that couldn't be identified from the selection, e.g. when names are
+ * passed as variables or selected through named fragments.
+ */
+class PropertiesPrefetchDataFetcher extends JCRDataFetcher<GQLItems> {
+    PropertiesPrefetchDataFetcher(GraphQLNodeRegistry registry) {
+        super(registry);
+    }
+
+    @Override
+    protected JCRRequestContext getRequestContext(DataFetchingEnvironment environment) {
+        return getSource(environment).getContext();
+    }
+
+    @Override
+    protected GQLItems perform(DataFetchingEnvironment environment, JCRRequestContext context, NodeLoader loader)
+            throws RepositoryException {
+        final GQLNode source = getSource(environment);
+        final GQLProperties properties = new GQLProperties(source);
+        final Set<String> names = getSelectedNames(environment);
+        final NodeSnapshot snapshot = source.getSnapshot();
+        if (snapshot != null) {
+            for (Iterator<String> iterator = names.iterator(); iterator.hasNext(); ) {
+                final String name = iterator.next();
+                if (snapshot.hasValue(name)) {
+                    properties.cached(name, snapshot.getValue(name));
+                    iterator.remove();
+                }
+            }
+        }
+        if (names.isEmpty()) {
+            return properties;
+        }
+
+        final JCRNodeWrapper node = source.getNode() != null ? source.getNode() : loader.load(source.getId());
+        int read = read(node, names, properties);
+        for (Locale locale : source.getLocales()) {
+            if (names.isEmpty()) {
+                break;
+            }
+            final JCRNodeWrapper translation = loader.getTranslation(node, locale);
+            if (translation != null) {
+                read += read(translation, names, properties);
+            }
+        }
+        context.propertiesRead(read);
+        for (String missing : names) {
+            properties.prefetched(missing, null, null);
+        }
+        if (snapshot != null) {
+            properties.addTo(snapshot);
+        }
+        return properties;
+    }
+
+    /**
+     * Reads the specified properties of the specified node in one call, removing the ones which were found from the
+     * specified names.
+     *
+     * @return the number of properties read
+     */
+    private static int read(JCRNodeWrapper holder, Set<String> names, GQLProperties properties)
+            throws RepositoryException {
+        int read = 0;
+        final PropertyIterator iterator = holder.getProperties(names.toArray(new String[names.size()]));
+        while (iterator.hasNext()) {
+            final Property property = iterator.nextProperty();
+            final String name = property.getName();
+            properties.prefetched(name, holder, property);
+            names.remove(name);
+            read++;
+        }
+        return read;
+    }
+
+    /**
+     * @return the JCR names of the properties selected on the field, either through their own field or as the name
+     * argument of a field of wildcard properties, directly or in inline fragments
+     */
+    private static Set<String> getSelectedNames(DataFetchingEnvironment environment) {
+        final Set<String> names = new LinkedHashSet<>();
+        if (!(environment.getFieldType() instanceof GraphQLObjectType)) {
+            return names;
+        }
+        final GraphQLObjectType type = (GraphQLObjectType) environment.getFieldType();
+        for (Field field : environment.getFields()) {
+            addSelectedNames(type, field.getSelectionSet(), names);
+        }
+        return names;
+    }
+
+    /**
+     * Adds the JCR names of the properties selected in the specified selection set to the specified names. Fragment
+     * spreads can't be resolved from the data fetching environment, their properties are read by the
+     * {@link PropertiesDataFetcher} when they're resolved.
+     */
+    private static void addSelectedNames(GraphQLObjectType type, SelectionSet selectionSet, Set<String> names) {
+        if (selectionSet == null) {
+            return;
+        }
+        for (Selection selection : selectionSet.getSelections()) {
+            if (selection instanceof Field) {
+                final String name = getPropertyName(type, (Field) selection);
+                if (name != null) {
+                    names.add(name);
+                }
+            } else if (selection instanceof InlineFragment) {
+                addSelectedNames(type, ((InlineFragment) selection).getSelectionSet(), names);
+            }
+        }
+    }
+
+    /**
+     * @return the JCR name of the property read by the specified field, null if it doesn't read a property, e.g. it
+     * resolves the node referenced by a property, or if its name is passed as a variable
+     */
+    private static String getPropertyName(GraphQLObjectType type, Field field) {
+        final GraphQLFieldDefinition definition = type.getFieldDefinition(field.getName());
+        if (definition == null || !(definition.getDataFetcher() instanceof PropertiesDataFetcher)) {
+            return null;
+        }
+        if (definition.getArgument("name") != null) {
+            for (Argument argument : field.getArguments()) {
+                if ("name".equals(argument.getName())) {
+                    final Value value = argument.getValue();
+                    return value instanceof StringValue ? ((StringValue) value).getValue() : null;
+                }
+            }
+            return null;
+        }
+        return GraphQLNodeRegistry.unescape(field.getName());
+    }
+
+    @Override
+    protected String getWs(DataFetchingEnvironment environment) {
+        return getSource(environment).getWs();
+    }
+
+    @Override
+    protected Locale getLang(DataFetchingEnvironment environment) {
+        return getSource(environment).getLang();
+    }
+
+    private static GQLNode getSource(DataFetchingEnvironment environment) {
+        return (GQLNode) environment.getSource();
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import org.jahia.services.content.DefaultEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Evicts cached query results affected by content changes. A change invalidates the results depending on the changed
+ * node as well as the ones depending on its parent, whose children or properties listing might have changed.
+ * <p>
+ * Snapshots of the changed nodes are evicted from the {@link NodeSnapshotCache} as well, along with the ones of the
+ * descendants of removed or moved nodes, whose paths changed.
+ * <p>
+ * The listener is to be registered on the live workspace and made available during publications, which are what
+ * changes live content: {@link DefaultEventListener} ignores the events of publications otherwise.
+ */
+public class QueryCacheInvalidationListener extends DefaultEventListener {
+    private static Logger logger = LoggerFactory.getLogger(QueryCacheInvalidationListener.class);
+
+    private static final String TRANSLATION_PREFIX = "j:translation_";
+
+    private QueryResultCache cache;
+    private NodeSnapshotCache snapshotCache;
+
+    public void setCache(QueryResultCache cache) {
+        this.cache = cache;
+    }
+
+    public void setSnapshotCache(NodeSnapshotCache snapshotCache) {
+        this.snapshotCache = snapshotCache;
+    }
+
+    @Override
+    public int getEventTypes() {
+        return Event.NODE_ADDED + Event.NODE_REMOVED + Event.NODE_MOVED + Event.PROPERTY_ADDED
+                + Event.PROPERTY_CHANGED + Event.PROPERTY_REMOVED;
+    }
+
+    @Override
+    public void onEvent(EventIterator events) {
+        final boolean snapshots = snapshotCache != null && snapshotCache.isEnabled();
+        if (!cache.isEnabled() && !snapshots) {
+            return;
+        }
+
+        final Set<String> changed = new HashSet<>();
+        final Set<String> removedPaths = new HashSet<>();
+        while (events.hasNext()) {
+            final Event event = events.nextEvent();
+            try {
+                final String path = event.getPath();
+                final String parentPath = path.substring(0, Math.max(path.lastIndexOf('/'), 1));
+                final boolean propertyEvent = (event.getType() & (Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED
+                        | Event.PROPERTY_REMOVED)) != 0;
+
+                // property events report the property path, the changed node is its parent
+                final String nodePath = propertyEvent ? parentPath : path;
+                changed.add(nodePath);
+                changed.add(parentPath);
+                // translated properties are served as properties of the translated node
+                final int nameStart = nodePath.lastIndexOf('/') + 1;
+                if (nodePath.startsWith(TRANSLATION_PREFIX, nameStart) && nameStart > 1) {
+                    changed.add(nodePath.substring(0, nameStart - 1));
+                }
+                if (event.getIdentifier() != null) {
+                    changed.add(event.getIdentifier());
+                }
+                // moves also report the removal of the source path
+                if (event.getType() == Event.NODE_REMOVED) {
+                    removedPaths.add(path);
+                }
+            } catch (RepositoryException e) {
+                logger.warn("Couldn't process event, clearing query cache", e);
+                cache.clear();
+                if (snapshots) {
+                    snapshotCache.clear();
+                }
+                return;
+            }
+        }
+
+        if (cache.isEnabled()) {
+            cache.invalidate(changed);
+        }
+        if (snapshots) {
+            snapshotCache.invalidate(changed, removedPaths);
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import graphql.language.*;
+import graphql.parser.Parser;
+import graphql.schema.*;
+import org.jahia.services.usermanager.JahiaGroupManagerService;
+import org.jahia.services.usermanager.JahiaUser;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Statically estimates how much repository work a query can trigger, from its parsed document and the schema, and
+ * checks it against the limits configured for the user executing it, so that expensive queries are rejected before
+ * touching the repository.
+ * <p>
+ * Each field fetching nodes costs a weight, higher for wildcard children and searches, which is added to the cost of
+ * its selection. Other scalar fields are free, except the ones reading binaries: a {@code chunk} costs
+ * {@link #BINARY_CHUNK_WEIGHT} per {@value BinaryChunkDataFetcher#DEFAULT_CHUNK_SIZE} bytes requested, and a
+ * {@code digest}, which reads the whole binary, costs {@link #DIGEST_WEIGHT}. Fields returning lists multiply the cost of their selection by the number of items they can return:
+ * their {@code first} or {@code limit} argument, or {@link #DEFAULT_LIST_SIZE} when they have none. The depth is the
+ * number of nested fields with a selection. Page sizes are given by clients: costs saturate at {@link Long#MAX_VALUE}
+ * instead of overflowing.
+ * <p>
+ * Limits of 0 mean unlimited. A user belonging to groups with specific limits gets the most permissive of them, which
+ * can be more restrictive than the default ones, while other users get the default limits.
+ */
+public class QueryCostAnalyzer {
+    static final int NODE_WEIGHT = 1;
+    static final int WILDCARD_WEIGHT = 2;
+    static final int SEARCH_WEIGHT = 10;
+    static final int DEFAULT_LIST_SIZE = 100;
+    static final int BINARY_CHUNK_WEIGHT = 1;
+    static final int DIGEST_WEIGHT = 20;
+
+    private int defaultMaxDepth;
+    private long defaultMaxCost;
+    private Map<String, Integer> groupMaxDepths = Collections.emptyMap();
+    private Map<String, Long> groupMaxCosts = Collections.emptyMap();
+
+    public void setDefaultMaxDepth(int defaultMaxDepth) {
+        this.defaultMaxDepth = defaultMaxDepth;
+    }
+
+    public void setDefaultMaxCost(long defaultMaxCost) {
+        this.defaultMaxCost = defaultMaxCost;
+    }
+
+    /**
+     * @param groupMaxDepths maximum depths, by name of the group they apply to
+     */
+    public void setGroupMaxDepths(Map<String, Integer> groupMaxDepths) {
+        this.groupMaxDepths = groupMaxDepths;
+    }
+
+    /**
+     * @param groupMaxCosts maximum costs, by name of the group they apply to
+     */
+    public void setGroupMaxCosts(Map<String, Long> groupMaxCosts) {
+        this.groupMaxCosts = groupMaxCosts;
+    }
+
+    /**
+     * @return the cost of the specified operation of the specified query, {@code null} if the query can't be parsed
+     * or doesn't contain the operation, which is left for the execution to report
+     */
+    QueryCost analyze(GraphQLSchema schema, String query, String operationName, Map<String, Object> variables) {
+        final Document document;
+        try {
+            document = new Parser().parseDocument(query);
+        } catch (RuntimeException e) {
+            return null;
+        }
+
+        OperationDefinition operation = null;
+        final Map<String, FragmentDefinition> fragments = new HashMap<>();
+        for (Definition definition : document.getDefinitions()) {
+            if (definition instanceof FragmentDefinition) {
+                fragments.put(((FragmentDefinition) definition).getName(), (FragmentDefinition) definition);
+            } else if (definition instanceof OperationDefinition && operation == null
+                    && (operationName == null || operationName.equals(((OperationDefinition) definition).getName()))) {
+                operation = (OperationDefinition) definition;
+            }
+        }
+        if (operation == null || operation.getOperation() != OperationDefinition.Operation.QUERY) {
+            return null;
+        }
+
+        final Analysis analysis = new Analysis(schema, fragments,
+                variables != null ? variables : Collections.<String, Object>emptyMap());
+        final long cost = analysis.cost(operation.getSelectionSet(), schema.getQueryType(), 0, 0);
+        return new QueryCost(cost, analysis.maxDepth);
+    }
+
+    /**
+     * @return a description of the limit exceeded by the specified cost for the specified user, {@code null} if the
+     * query is allowed
+     */
+    String check(QueryCost cost, JahiaUser user) {
+        final long maxCost = getMaxCost(user);
+        if (maxCost > 0 && cost.getCost() > maxCost) {
+            return "Query cost " + cost.getCost() + " exceeds the maximum of " + maxCost
+                    + ", request fewer items or select fewer fields";
+        }
+        final int maxDepth = getMaxDepth(user);
+        if (maxDepth > 0 && cost.getDepth() > maxDepth) {
+            return "Query depth " + cost.getDepth() + " exceeds the maximum of " + maxDepth;
+        }
+        return null;
+    }
+
+    long getMaxCost(JahiaUser user) {
+        Long max = null;
+        for (Map.Entry<String, Long> entry : groupMaxCosts.entrySet()) {
+            // membership is only checked for limits more permissive than the ones of the groups found so far
+            if ((max == null || max > 0 && (entry.getValue() <= 0 || entry.getValue() > max))
+                    && isMember(user, entry.getKey())) {
+                max = entry.getValue();
+            }
+        }
+        return max != null ? max : defaultMaxCost;
+    }
+
+    int getMaxDepth(JahiaUser user) {
+        Integer max = null;
+        for (Map.Entry<String, Integer> entry : groupMaxDepths.entrySet()) {
+            if ((max == null || max > 0 && (entry.getValue() <= 0 || entry.getValue() > max))
+                    && isMember(user, entry.getKey())) {
+                max = entry.getValue();
+            }
+        }
+        return max != null ? max : defaultMaxDepth;
+    }
+
+    boolean isMember(JahiaUser user, String group) {
+        return user != null
+                && JahiaGroupManagerService.getInstance().isMember(user.getUsername(), user.getRealm(), group, null);
+    }
+
+    /**
+     * The estimated cost and depth of a query.
+     */
+    static class QueryCost {
+        private final long cost;
+        private final int depth;
+
+        QueryCost(long cost, int depth) {
+            this.cost = cost;
+            this.depth = depth;
+        }
+
+        long getCost() {
+            return cost;
+        }
+
+        int getDepth() {
+            return depth;
+        }
+    }
+
+    private static class Analysis {
+        private final GraphQLSchema schema;
+        private final Map<String, FragmentDefinition> fragments;
+        private final Map<String, Object> variables;
+        private final Set<String> visitedFragments = new HashSet<>();
+        private int maxDepth;
+
+        private Analysis(GraphQLSchema schema, Map<String, FragmentDefinition> fragments,
+                         Map<String, Object> variables) {
+            this.schema = schema;
+            this.fragments = fragments;
+            this.variables = variables;
+        }
+
+        /**
+         * @param pageSize the number of items requested by the parent field for lists of this selection, 0 if none
+         */
+        private long cost(SelectionSet selectionSet, GraphQLType type, int depth, int pageSize) {
+            long cost = 0;
+            for (Selection selection : selectionSet.getSelections()) {
+                if (selection instanceof Field) {
+                    cost = add(cost, cost((Field) selection, type, depth, pageSize));
+                } else if (selection instanceof InlineFragment) {
+                    final InlineFragment fragment = (InlineFragment) selection;
+                    cost = add(cost, cost(fragment.getSelectionSet(), getType(fragment.getTypeCondition(), type), depth,
+                            pageSize));
+                } else if (selection instanceof FragmentSpread) {
+                    final FragmentDefinition fragment = fragments.get(((FragmentSpread) selection).getName());
+                    // fragment cycles are reported by the validation
+                    if (fragment != null && visitedFragments.add(fragment.getName())) {
+                        cost = add(cost, cost(fragment.getSelectionSet(), getType(fragment.getTypeCondition(), type),
+                                depth, pageSize));
+                        visitedFragments.remove(fragment.getName());
+                    }
+                }
+            }
+            return cost;
+        }
+
+        private long cost(Field field, GraphQLType type, int depth, int pageSize) {
+            if (!(type instanceof GraphQLFieldsContainer)) {
+                return 0;
+            }
+            final GraphQLFieldDefinition definition = ((GraphQLFieldsContainer) type).getFieldDefinition(field.getName());
+            if (definition == null) {
+                return 0;
+            }
+            if (field.getSelectionSet() == null) {
+                return getScalarWeight(field, definition, type);
+            }
+
+            boolean list = false;
+            GraphQLType fieldType = definition.getType();
+            while (fieldType instanceof GraphQLModifiedType) {
+                list |= fieldType instanceof GraphQLList;
+                fieldType = ((GraphQLModifiedType) fieldType).getWrappedType();
+            }
+
+            final int depthBelow = depth + 1;
+            maxDepth = Math.max(maxDepth, depthBelow);
+
+            final int requested = getPageSize(field, definition);
+            final long cost = add(getWeight(definition), cost(field.getSelectionSet(), fieldType, depthBelow,
+                    list ? 0 : requested));
+            if (!list) {
+                return cost;
+            }
+            final int size = requested > 0 ? requested : pageSize > 0 ? pageSize : DEFAULT_LIST_SIZE;
+            return multiply(size, cost);
+        }
+
+        private static long add(long a, long b) {
+            try {
+                return Math.addExact(a, b);
+            } catch (ArithmeticException e) {
+                return Long.MAX_VALUE;
+            }
+        }
+
+        private static long multiply(long a, long b) {
+            try {
+                return Math.multiplyExact(a, b);
+            } catch (ArithmeticException e) {
+                return Long.MAX_VALUE;
+            }
+        }
+
+        private int getWeight(GraphQLFieldDefinition definition) {
+            final DataFetcher fetcher = definition.getDataFetcher();
+            if (fetcher instanceof SearchDataFetcher) {
+                return SEARCH_WEIGHT;
+            } else if (fetcher instanceof ChildrenConnectionDataFetcher || fetcher instanceof DescendantsDataFetcher
+                    || (fetcher instanceof ChildrenDataFetcher && definition.getArgument("name") != null)) {
+                return WILDCARD_WEIGHT;
+            } else if (fetcher instanceof JCRDataFetcher) {
+                return NODE_WEIGHT;
+            }
+            return 0;
+        }
+
+        private int getScalarWeight(Field field, GraphQLFieldDefinition definition, GraphQLType type) {
+            if (definition.getDataFetcher() instanceof BinaryChunkDataFetcher) {
+                Object length = definition.getArgument("length").getDefaultValue();
+                for (Argument given : field.getArguments()) {
+                    if ("length".equals(given.getName())) {
+                        length = getValue(given.getValue());
+                    }
+                }
+                // larger chunks are rejected by the fetcher
+                final long bytes = length instanceof Number ? Math.max(Math.min(((Number) length).longValue(),
+                        BinaryChunkDataFetcher.MAX_CHUNK_SIZE), 1) : BinaryChunkDataFetcher.MAX_CHUNK_SIZE;
+                return (int) ((bytes + BinaryChunkDataFetcher.DEFAULT_CHUNK_SIZE - 1)
+                        / BinaryChunkDataFetcher.DEFAULT_CHUNK_SIZE) * BINARY_CHUNK_WEIGHT;
+            } else if (GraphQLNodeRegistry.BINARY_NAME.equals(type.getName()) && "digest".equals(field.getName())) {
+                return DIGEST_WEIGHT;
+            }
+            return 0;
+        }
+
+        /**
+         * @return the number of items requested through the pagination arguments of the field, 0 if it has none
+         */
+        private int getPageSize(Field field, GraphQLFieldDefinition definition) {
+            for (String name : Arrays.asList("first", "limit")) {
+                final GraphQLArgument argument = definition.getArgument(name);
+                if (argument == null) {
+                    continue;
+                }
+                Object value = argument.getDefaultValue();
+                for (Argument given : field.getArguments()) {
+                    if (name.equals(given.getName())) {
+                        value = getValue(given.getValue());
+                    }
+                }
+                // variables are not coerced yet, large values must not wrap around
+                return value instanceof Number ? (int) Math.max(Math.min(((Number) value).longValue(),
+                        Integer.MAX_VALUE), Integer.MIN_VALUE) : DEFAULT_LIST_SIZE;
+            }
+            return 0;
+        }
+
+        private Object getValue(Value value) {
+            if (value instanceof IntValue) {
+                final BigInteger integer = ((IntValue) value).getValue();
+                return integer.bitLength() < 64 ? integer.longValue()
+                        : integer.signum() > 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+            } else if (value instanceof VariableReference) {
+                return variables.get(((VariableReference) value).getName());
+            }
+            return null;
+        }
+
+        private GraphQLType getType(TypeName typeCondition, GraphQLType type) {
+            return typeCondition != null ? schema.getType(typeCondition.getName()) : type;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.jahia.services.usermanager.JahiaUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded cache of query results. Results are stored serialized, both to account for their actual size and to
+ * hand out independent copies, and are evicted in least recently used order once the configured size is exceeded.
+ * <p>
+ * Each entry records the identifiers and paths of the nodes its result was computed from, so that content changes
+ * reported by {@link QueryCacheInvalidationListener} only evict the entries they might affect. Results computed while
+ * entries were invalidated might be computed from content which changed since, they are not cached.
+ */
+public class QueryResultCache {
+    private static Logger logger = LoggerFactory.getLogger(QueryResultCache.class);
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    static final String ALL_CHANGES = "*";
+
+    private long maxSize;
+    private long size;
+    // incremented by each invalidation
+    private long generation;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<String>> keysByDependency = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param maxSize the maximum total size of the cached results, in bytes, 0 disabling the cache
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Computes the key of a query: the query is normalized so that formatting differences do not prevent hits, and
+     * the key is bound to the requesting user since results depend on their permissions. String literals are kept
+     * as they are, and variables are encoded as JSON with their entries ordered by name.
+     *
+     * @return the key, or {@code null} if the variables can't be encoded and the result shouldn't be cached
+     */
+    static String key(String query, String operationName, Map<String, Object> variables, JahiaUser user) {
+        final StringBuilder key = new StringBuilder(query.length() + 64);
+        boolean separator = false;
+        for (int i = 0; i < query.length(); i++) {
+            final char c = query.charAt(i);
+            if (Character.isWhitespace(c) || c == ',') {
+                separator = key.length() > 0;
+            } else if (c == '#') {
+                // comments are ignored like whitespace
+                while (i + 1 < query.length() && query.charAt(i + 1) != '\n' && query.charAt(i + 1) != '\r') {
+                    i++;
+                }
+                separator = key.length() > 0;
+            } else {
+                if (separator) {
+                    key.append(' ');
+                    separator = false;
+                }
+                if (c == '"') {
+                    final int end = skipString(query, i);
+                    key.append(query, i, end);
+                    i = end - 1;
+                } else {
+                    key.append(c);
+                }
+            }
+        }
+
+        final String encodedVariables;
+        try {
+            encodedVariables = variables == null ? "" : mapper.writeValueAsString(variables);
+        } catch (JsonProcessingException e) {
+            logger.debug("Couldn't encode variables, not caching the result", e);
+            return null;
+        }
+        key.append('\u0000').append(operationName)
+                .append('\u0000').append(encodedVariables)
+                .append('\u0000').append(user == null ? "" : user.getLocalPath());
+        return key.toString();
+    }
+
+    /**
+     * @return the index following the string or block string literal starting at the specified index, or the length
+     * of the query if it isn't terminated
+     */
+    private static int skipString(String query, int start) {
+        if (query.startsWith("\"\"\"", start)) {
+            int end = query.indexOf("\"\"\"", start + 3);
+            while (end > 0 && query.charAt(end - 1) == '\\') {
+                end = query.indexOf("\"\"\"", end + 3);
+            }
+            return end < 0 ? query.length() : end + 3;
+        }
+        for (int i = start + 1; i < query.length(); i++) {
+            final char c = query.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"' || c == '\n' || c == '\r') {
+                return i + 1;
+            }
+        }
+        return query.length();
+    }
+
+    Object get(String key) {
+        final byte[] data;
+        synchronized (this) {
+            final Entry entry = entries.get(key);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            data = entry.data;
+        }
+
+        hits.incrementAndGet();
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            logger.warn("Couldn't read cached result, ignoring it", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the current generation of the cache, to pass to {@link #put(String, Object, Set, long)} along with the
+     * result of a query executed from now on
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches the specified result, unless entries were invalidated since the specified generation: the content the
+     * result was computed from might have changed during the execution of the query.
+     */
+    void put(String key, Object result, Set<String> dependencies, long generation) {
+        final byte[] data;
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(result);
+            }
+            data = bytes.toByteArray();
+        } catch (IOException e) {
+            logger.debug("Couldn't serialize result, not caching it", e);
+            return;
+        }
+
+        if (data.length > maxSize) {
+            return;
+        }
+
+        synchronized (this) {
+            if (generation != this.generation) {
+                return;
+            }
+            remove(key);
+            entries.put(key, new Entry(data, dependencies));
+            size += data.length;
+            for (String dependency : dependencies) {
+                Set<String> keys = keysByDependency.get(dependency);
+                if (keys == null) {
+                    keys = new HashSet<>();
+                    keysByDependency.put(dependency, keys);
+                }
+                keys.add(key);
+            }
+
+            while (size > maxSize && !entries.isEmpty()) {
+                remove(entries.keySet().iterator().next());
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Evicts the entries depending on the specified node identifiers or paths, as well as the ones depending on any
+     * change.
+     */
+    synchronized void invalidate(Collection<String> changed) {
+        generation++;
+        final Set<String> keys = new HashSet<>();
+        for (String dependency : changed) {
+            final Set<String> dependents = keysByDependency.get(dependency);
+            if (dependents != null) {
+                keys.addAll(dependents);
+            }
+        }
+        final Set<String> volatileKeys = keysByDependency.get(ALL_CHANGES);
+        if (volatileKeys != null) {
+            keys.addAll(volatileKeys);
+        }
+
+        for (String key : keys) {
+            remove(key);
+        }
+        invalidations.addAndGet(keys.size());
+    }
+
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        keysByDependency.clear();
+        size = 0;
+    }
+
+    private void remove(String key) {
+        final Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.data.length;
+            for (String dependency : entry.dependencies) {
+                final Set<String> keys = keysByDependency.get(dependency);
+                if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                    keysByDependency.remove(dependency);
+                }
+            }
+        }
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    private static class Entry {
+        private final byte[] data;
+        private final Set<String> dependencies;
+
+        Entry(byte[] data, Set<String> dependencies) {
+            this.data = data;
+            this.dependencies = dependencies;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import graphql.language.Field;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.GraphQLList;
+import graphql.schema.GraphQLNonNull;
+import graphql.schema.GraphQLType;
+
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Records the timing of the fields resolved by the data fetchers of a query, to be returned in the {@code tracing}
+ * extension of its result, following the Apollo tracing format.
+ * <p>
+ * graphql-java doesn't give data fetchers the path of the field in the response, so the path of each resolver only
+ * holds its response key: resolvers are identified by their parent type and field name.
+ */
+class QueryTracing {
+    private final long startNanos = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+    private final List<Map<String, Object>> resolvers = new ArrayList<>();
+
+    void resolved(DataFetchingEnvironment environment, long startNanos, long durationNanos) {
+        final Field field = environment.getFields().get(0);
+        final Map<String, Object> resolver = new LinkedHashMap<>();
+        resolver.put("path", Collections.singletonList(field.getAlias() != null ? field.getAlias() : field.getName()));
+        resolver.put("parentType", environment.getParentType().getName());
+        resolver.put("fieldName", field.getName());
+        resolver.put("returnType", getTypeName(environment.getFieldType()));
+        resolver.put("startOffset", startNanos - this.startNanos);
+        resolver.put("duration", durationNanos);
+        synchronized (resolvers) {
+            resolvers.add(resolver);
+        }
+    }
+
+    /**
+     * @return the {@code tracing} extension for the query, as of now
+     */
+    Map<String, Object> toExtension() {
+        final long duration = System.nanoTime() - startNanos;
+        final Map<String, Object> tracing = new LinkedHashMap<>();
+        tracing.put("version", 1);
+        tracing.put("startTime", format(startMillis));
+        tracing.put("endTime", format(startMillis + duration / 1000000));
+        tracing.put("duration", duration);
+        synchronized (resolvers) {
+            tracing.put("execution", Collections.singletonMap("resolvers", new ArrayList<>(resolvers)));
+        }
+        return tracing;
+    }
+
+    private static String getTypeName(GraphQLType type) {
+        if (type instanceof GraphQLList) {
+            return "[" + getTypeName(((GraphQLList) type).getWrappedType()) + "]";
+        } else if (type instanceof GraphQLNonNull) {
+            return getTypeName(((GraphQLNonNull) type).getWrappedType()) + "!";
+        }
+        return type.getName();
+    }
+
+    private static String format(long millis) {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(millis));
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import graphql.schema.DataFetchingEnvironment;
+import org.jahia.services.content.JCRNodeWrapper;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Resolves the nodes a REFERENCE or WEAKREFERENCE property points to. The first time the field is resolved on a node
+ * of a {@link NodeBatch}, the references of all the nodes of the batch are queued on the {@link NodeLoader}, so that
+ * they're all loaded together. References to nodes which don't exist anymore resolve to {@code null}.
+ */
+class ReferenceDataFetcher extends ItemsDataFetcher<Object> {
+    private final String propertyName;
+
+    ReferenceDataFetcher(GraphQLNodeRegistry registry, String propertyName) {
+        super(registry);
+        this.propertyName = propertyName;
+    }
+
+    @Override
+    protected String getItemName(DataFetchingEnvironment environment) {
+        return propertyName;
+    }
+
+    @Override
+    protected Object perform(DataFetchingEnvironment environment, JCRRequestContext context, NodeLoader loader,
+                             JCRNodeWrapper node, String childName) throws RepositoryException {
+        final GQLNode parent = getItemsParent(environment);
+        final NodeBatch batch = parent.getBatch();
+        if (batch != null && batch.prepare(propertyName)) {
+            for (GQLNode sibling : batch.getNodes()) {
+                final Property property = getProperty(sibling.getNode(), sibling.getLocales(), loader);
+                if (property != null) {
+                    for (String id : getIdentifiers(property)) {
+                        loader.enqueue(id);
+                    }
+                }
+            }
+        }
+
+        final Property property = getProperty(node, parent.getLocales(), loader);
+        if (property == null) {
+            return null;
+        }
+
+        if (property.isMultiple()) {
+            final List<JCRNodeWrapper> targets = loader.loadAll(getIdentifiers(property));
+            final List<GQLNode> result = new ArrayList<>(targets.size());
+            for (JCRNodeWrapper target : targets) {
+                result.add(new GQLNode(target, loader.getWorkspace(), loader.getLocale(), parent.getFallbackLangs(),
+                        context));
+            }
+            NodeBatch.link(result);
+            return result;
+        } else {
+            try {
+                return new GQLNode(loader.load(property.getString()), loader.getWorkspace(), loader.getLocale(),
+                        parent.getFallbackLangs(), context);
+            } catch (ItemNotFoundException e) {
+                return null;
+            }
+        }
+    }
+
+    private Property getProperty(JCRNodeWrapper node, List<Locale> locales, NodeLoader loader)
+            throws RepositoryException {
+        if (node == null) {
+            return null;
+        }
+        final JCRNodeWrapper holder = loader.getPropertyHolder(node, propertyName, locales);
+        return holder != null ? holder.getProperty(propertyName) : null;
+    }
+
+    private static List<String> getIdentifiers(Property property) throws RepositoryException {
+        if (!property.isMultiple()) {
+            return Collections.singletonList(property.getString());
+        }
+        final Value[] values = property.getValues();
+        final List<String> ids = new ArrayList<>(values.length);
+        for (Value value : values) {
+            ids.add(value.getString());
+        }
+        return ids;
+    }
+}
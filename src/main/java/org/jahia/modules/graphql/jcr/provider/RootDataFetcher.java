@@ -0,0 +1,111 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import graphql.schema.DataFetchingEnvironment;
+import org.jahia.api.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Base class for the fetchers of the query root fields, which take the workspace and locale to use as arguments and
+ * start the request context shared by the fields resolved on their results.
+ */
+abstract class RootDataFetcher<T> extends JCRDataFetcher<T> {
+    private static Logger logger = LoggerFactory.getLogger(RootDataFetcher.class);
+
+    RootDataFetcher(GraphQLNodeRegistry registry) {
+        super(registry);
+    }
+
+    @Override
+    protected JCRRequestContext getRequestContext(DataFetchingEnvironment environment) {
+        final Object context = environment.getContext();
+        final JCRRequestContext current = JCRRequestContext.getCurrent();
+        if (context instanceof JCRRequestContext) {
+            // fields resolved concurrently use a branch of the context of the request, see JCRParallelExecutionStrategy
+            return current != null && current.isBranchOf((JCRRequestContext) context) ? current
+                    : (JCRRequestContext) context;
+        }
+
+        if (current != null) {
+            return current;
+        }
+
+        // not executed by the query executor nor through JCRRequestFilter: this context is never closed, its sessions
+        // are the thread-bound ones Jahia releases at the end of the HTTP request
+        logger.warn("No request context for {}, JCRRequestFilter should be mapped on the GraphQL servlet",
+                environment.getFields().get(0).getName());
+        return new JCRRequestContext(registry);
+    }
+
+    @Override
+    protected String getWs(DataFetchingEnvironment environment) {
+        final String ws = environment.getArgument("ws");
+        return ws == null || "DEFAULT".equals(ws) ? Constants.EDIT_WORKSPACE : Constants.LIVE_WORKSPACE;
+    }
+
+    @Override
+    protected Locale getLang(DataFetchingEnvironment environment) {
+        final String lang = environment.getArgument("lang");
+        return lang == null ? Locale.ENGLISH : Locale.forLanguageTag(lang);
+    }
+
+    protected List<Locale> getFallbackLangs(DataFetchingEnvironment environment) {
+        final List<String> fallbackLangs = environment.getArgument("fallbackLangs");
+        if (fallbackLangs == null || fallbackLangs.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<Locale> locales = new ArrayList<>(fallbackLangs.size());
+        for (String fallbackLang : fallbackLangs) {
+            locales.add(Locale.forLanguageTag(fallbackLang));
+        }
+        return locales;
+    }
+}
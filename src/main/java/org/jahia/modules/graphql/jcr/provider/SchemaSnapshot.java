@@ -0,0 +1,137 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reads and writes the node type models the GraphQL schema is generated from, so that a restarted module doesn't
+ * need to walk all the node type definitions again. A snapshot is only used if it was written for the same key,
+ * which identifies the set of node type definitions it was taken from.
+ */
+class SchemaSnapshot {
+    private static Logger logger = LoggerFactory.getLogger(SchemaSnapshot.class);
+
+    private static final int MAGIC = 0x47514C53;
+    private static final int VERSION = 1;
+    static final String PREFIX = "schema-";
+    static final String SUFFIX = ".bin";
+
+    private SchemaSnapshot() {
+    }
+
+    /**
+     * @return the models stored in the specified file, or {@code null} if it couldn't be read or wasn't written for
+     * the specified key
+     */
+    static Collection<NodeTypeModel> read(File file, String key) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(in.readUTF())) {
+                logger.info("Ignoring outdated GraphQL schema snapshot " + file);
+                return null;
+            }
+            final int count = in.readInt();
+            final List<NodeTypeModel> models = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                models.add(NodeTypeModel.read(in));
+            }
+            return models;
+        } catch (IOException e) {
+            logger.warn("Couldn't read GraphQL schema snapshot " + file + ", regenerating it", e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the specified models to the specified file, replacing it atomically, and removes the snapshots written
+     * for other keys.
+     */
+    static void write(File file, String key, Collection<NodeTypeModel> models) {
+        final File directory = file.getParentFile();
+        try {
+            Files.createDirectories(directory.toPath());
+            final File temp = File.createTempFile(PREFIX, ".tmp", directory);
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeUTF(key);
+                    out.writeInt(models.size());
+                    for (NodeTypeModel model : models) {
+                        model.write(out);
+                    }
+                }
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+        } catch (IOException e) {
+            logger.warn("Couldn't write GraphQL schema snapshot " + file, e);
+            return;
+        }
+
+        final File[] stale = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+        if (stale != null) {
+            for (File snapshot : stale) {
+                if (!snapshot.equals(file) && !snapshot.delete()) {
+                    logger.debug("Couldn't delete stale GraphQL schema snapshot {}", snapshot);
+                }
+            }
+        }
+    }
+}
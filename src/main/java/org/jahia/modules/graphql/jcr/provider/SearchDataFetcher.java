@@ -0,0 +1,219 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ * http://www.jahia.com
+ *
+ * Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ * THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ * 1/GPL OR 2/JSEL
+ *
+ * 1/ GPL
+ * ==================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ * 2/ JSEL - Commercial and Supported Versions of the program
+ * ===================================================================================
+ *
+ * IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ * Alternatively, commercial and supported versions of the program - also known as
+ * Enterprise Distributions - must be used in accordance with the terms and conditions
+ * contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ * If you are unsure which license is appropriate for your use,
+ * please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.graphql.jcr.provider;
+
+import graphql.schema.DataFetchingEnvironment;
+import org.jahia.services.content.JCRNodeWrapper;
+import org.jahia.services.content.JCRSessionWrapper;
+import org.jahia.services.content.nodetypes.ExtendedNodeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.nodetype.PropertyDefinition;
+import javax.jcr.query.Query;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Translates the arguments of the {@code search} field into a single JCR-SQL2 query so that filtering, ordering and
+ * paging are performed by the repository indexes instead of by walking the content tree. Constraint values are always
+ * passed as bind variables; identifiers which cannot be bound (node type, path and property names) are validated
+ * before being inlined. Values of date properties can be given as epoch milliseconds, as they are returned by
+ * {@link PropertiesDataFetcher}, or in ISO-8601 format.
+ */
+class SearchDataFetcher extends RootDataFetcher<List<GQLNode>> {
+    private static Logger logger = LoggerFactory.getLogger(SearchDataFetcher.class);
+
+    static final int DEFAULT_LIMIT = 100;
+    private static final Pattern EPOCH_MILLIS = Pattern.compile("-?[0-9]{1,18}");
+
+    private static final Map<String, String> OPERATORS = new HashMap<>();
+
+    static {
+        OPERATORS.put("EQ", "=");
+        OPERATORS.put("NE", "<>");
+        OPERATORS.put("LT", "<");
+        OPERATORS.put("LE", "<=");
+        OPERATORS.put("GT", ">");
+        OPERATORS.put("GE", ">=");
+        OPERATORS.put("LIKE", "LIKE");
+    }
+
+    SearchDataFetcher(GraphQLNodeRegistry registry) {
+        super(registry);
+    }
+
+    @Override
+    protected List<GQLNode> perform(DataFetchingEnvironment environment, JCRRequestContext context, NodeLoader loader)
+            throws RepositoryException {
+        final String typeName = environment.getArgument("type");
+        final ExtendedNodeType type = registry.getNodeTypeRegistry().getNodeType(typeName);
+
+        final StringBuilder statement = new StringBuilder("SELECT * FROM [").append(type.getName()).append("] AS n");
+        final List<String> constraints = new ArrayList<>();
+
+        final String path = environment.getArgument("path");
+        if (path != null) {
+            constraints.add("ISDESCENDANTNODE(n, [" + checkIdentifier(path, "path") + "])");
+        }
+
+        final List<Map<String, Object>> where = environment.getArgument("where");
+        final Map<String, String> bindings = new LinkedHashMap<>();
+        final List<String> values = new ArrayList<>();
+        if (where != null) {
+            for (Map<String, Object> constraint : where) {
+                final String property = checkIdentifier((String) constraint.get("property"), "property");
+                final Object op = constraint.get("op");
+                final String operator = OPERATORS.get(op == null ? "EQ" : op.toString());
+                if (operator == null) {
+                    throw new IllegalArgumentException("Unknown operator " + op);
+                }
+                final Object value = constraint.get("value");
+                if (value == null) {
+                    // only equality can be checked against a missing value
+                    if ("=".equals(operator)) {
+                        constraints.add("n.[" + property + "] IS NULL");
+                    } else if ("<>".equals(operator)) {
+                        constraints.add("n.[" + property + "] IS NOT NULL");
+                    } else {
+                        throw new IllegalArgumentException("Missing value for " + op + " constraint on " + property);
+                    }
+                    continue;
+                }
+                final String variable = "v" + bindings.size();
+                bindings.put(variable, property);
+                values.add(value.toString());
+                constraints.add("n.[" + property + "] " + operator + " $" + variable);
+            }
+        }
+
+        for (int i = 0; i < constraints.size(); i++) {
+            statement.append(i == 0 ? " WHERE " : " AND ").append(constraints.get(i));
+        }
+
+        final String orderBy = environment.getArgument("orderBy");
+        if (orderBy != null) {
+            statement.append(" ORDER BY n.[").append(checkIdentifier(orderBy, "orderBy")).append(']');
+            if (Boolean.TRUE.equals(environment.getArgument("desc"))) {
+                statement.append(" DESC");
+            }
+        }
+
+        final JCRSessionWrapper session = loader.getSession();
+        final Query query = session.getWorkspace().getQueryManager().createQuery(statement.toString(), Query.JCR_SQL2);
+
+        if (!bindings.isEmpty()) {
+            final ValueFactory valueFactory = session.getValueFactory();
+            int i = 0;
+            for (Map.Entry<String, String> binding : bindings.entrySet()) {
+                final String value = values.get(i++);
+                final int propertyType = getPropertyType(type, binding.getValue());
+                query.bindValue(binding.getKey(), createValue(valueFactory, value, propertyType));
+            }
+        }
+
+        final Integer limit = environment.getArgument("limit");
+        query.setLimit(limit == null ? DEFAULT_LIMIT : checkNotNegative(limit, "limit"));
+        final Integer offset = environment.getArgument("offset");
+        if (offset != null) {
+            query.setOffset(checkNotNegative(offset, "offset"));
+        }
+
+        logger.debug("Executing {}", statement);
+
+        // any change might add nodes to or remove nodes from the results
+        context.dependOnAllChanges();
+
+        final NodeIterator nodes = query.execute().getNodes();
+        final List<GQLNode> result = new ArrayList<>();
+        while (nodes.hasNext()) {
+            context.checkDeadline();
+            result.add(new GQLNode((JCRNodeWrapper) nodes.nextNode(), loader.getWorkspace(), loader.getLocale(),
+                    getFallbackLangs(environment), context));
+        }
+        NodeBatch.link(result);
+        return result;
+    }
+
+    private static Value createValue(ValueFactory valueFactory, String value, int propertyType)
+            throws RepositoryException {
+        if (propertyType == PropertyType.UNDEFINED) {
+            return valueFactory.createValue(value);
+        } else if (propertyType == PropertyType.DATE && EPOCH_MILLIS.matcher(value).matches()) {
+            final Calendar date = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+            date.setTimeInMillis(Long.parseLong(value));
+            return valueFactory.createValue(date);
+        }
+        return valueFactory.createValue(value, propertyType);
+    }
+
+    private static String checkIdentifier(String identifier, String argument) {
+        if (identifier == null || identifier.isEmpty() || identifier.indexOf(']') >= 0) {
+            throw new IllegalArgumentException("Invalid " + argument + ": " + identifier);
+        }
+        return identifier;
+    }
+
+    private static int checkNotNegative(int value, String argument) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid " + argument + ", should not be negative: " + value);
+        }
+        return value;
+    }
+
+    private static int getPropertyType(ExtendedNodeType type, String property) {
+        // bind values with the type of the property so that comparisons are not performed on strings
+        for (PropertyDefinition definition : type.getPropertyDefinitions()) {
+            if (property.equals(definition.getName())) {
+                return definition.getRequiredType();
+            }
+        }
+        return PropertyType.UNDEFINED;
+    }
+}